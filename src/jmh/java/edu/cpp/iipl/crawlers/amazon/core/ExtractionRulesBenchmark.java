@@ -0,0 +1,172 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import edu.cpp.iipl.crawlers.amazon.model.Product;
+import edu.cpp.iipl.crawlers.amazon.model.Review;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Before/after of ExtractionRules: the parsers as they were before, compiling their patterns
+ * and selectors on every call and serializing each script twice, against the current parsePage.
+ * Both run on an already built DOM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionRulesBenchmark {
+
+    // fixture without ".html", product pages with 5 and 40 scripts, review pages with 10 and 50 reviews
+    @Param({"product-small", "product-large", "reviews-10", "reviews-50"})
+    public String fixture;
+
+    private ProductCrawler productCrawler;
+
+    private ReviewCrawler reviewCrawler;
+
+    private Document page;
+
+    // date format of the review parser before, not thread-safe as the benchmark is single threaded
+    private final DateFormat fmt_ = new SimpleDateFormat("MMMM d, yyyy", Locale.ENGLISH);
+
+    @Setup
+    public void setup() throws IOException {
+        productCrawler = new ProductCrawler();
+        reviewCrawler = new ReviewCrawler();
+        page = Jsoup.parse(Fixtures.html(fixture + ".html"), Fixtures.BASE_URI);
+    }
+
+    @Benchmark
+    public Object before() {
+        return isProductPage() ? parseProductBefore(page) : parseReviewsBefore(page);
+    }
+
+    @Benchmark
+    public Object after() {
+        return isProductPage() ? productCrawler.parsePage(page) : reviewCrawler.parsePage(page);
+    }
+
+    private boolean isProductPage() {
+        return fixture.startsWith("product");
+    }
+
+    // ProductCrawler.parsePage before ExtractionRules
+    private Product parseProductBefore(Document page) {
+        Product product = new Product();
+
+        // name
+        Element title = page.getElementsByTag("title").first();
+        if (title != null)
+            product.setName(title.ownText().trim());
+
+        // model number
+        Element model = page.select("b:containsOwn(Item model number:)").first();
+        if (model != null && model.parent() != null)
+            product.setModelNum(model.parent().ownText().trim().toUpperCase());
+
+        // number of reviews
+        product.setNumOfReviewsOnPage(0);
+        Element numOfReviews = page.getElementById("acrCustomerReviewText");
+        if (numOfReviews != null) {
+            Pattern pattern = Pattern.compile("([,\\d]+) customer review");
+            Matcher matcher = pattern.matcher(numOfReviews.ownText().trim());
+
+            if (matcher.find())
+                product.setNumOfReviewsOnPage(Integer.parseInt(matcher.group(1).replaceAll(",", "")));
+        }
+
+        // update date (crawling date)
+        product.setUpdateDate(new Date());
+
+        // image urls
+        Elements scripts = page.getElementsByTag("script");
+        Pattern hiResPttn = Pattern.compile("'colorImages':.+?'initial':.+?\"hiRes\".+?(null|\"http.+?\")");
+        Pattern largePttn = Pattern.compile("'colorImages':.+?'initial':.+?\"large\".+?(null|\"http.+?\")");
+        for (Element script : scripts) {
+            Matcher hiResMth = hiResPttn.matcher(script.html());
+            if (hiResMth.find() && !hiResMth.group(1).equals("null"))
+                product.setImgUrlHiRes(hiResMth.group(1).replaceAll("\"", ""));
+
+            Matcher largeMth = largePttn.matcher(script.html());
+            if (largeMth.find() && !largeMth.group(1).equals("null"))
+                product.setImgUrlLarge(largeMth.group(1).replaceAll("\"", ""));
+
+            if (product.getImgUrlHiRes() != null || product.getImgUrlLarge() != null)
+                break;
+        }
+
+        return product;
+    }
+
+    // ReviewCrawler.parsePage before ExtractionRules
+    private Map<String, Review> parseReviewsBefore(Document page) {
+        Map<String, Review> reviews = new HashMap<>();
+
+        for (Element reviewElement : page.select("div.a-section.review")) {
+            Review review = new Review();
+            review.setName(reviewElement.id());
+
+            // rating
+            Element rate = reviewElement.select("span.a-icon-alt").first();
+            if (rate != null) {
+                Pattern pattern = Pattern.compile("([\\d]).0 out of 5 stars");
+                Matcher matcher = pattern.matcher(rate.ownText());
+                if (matcher.find())
+                    review.setRate(Integer.parseInt(matcher.group(1)));
+            }
+
+            // title
+            Element title = reviewElement.select("a.review-title").first();
+            if (title != null)
+                review.setTitle(title.ownText().trim());
+
+            // date
+            Element date = reviewElement.select("span.review-date").first();
+            if (date != null) {
+                try {
+                    Pattern pattern = Pattern.compile("on (.+)");
+                    Matcher matcher = pattern.matcher(date.ownText().trim());
+                    if (matcher.find())
+                        review.setDate(fmt_.parse(matcher.group(1)));
+                } catch (ParseException e) {
+                    // same fixtures as after, never happens
+                }
+            }
+
+            // help ratio
+            Element helpRatio = reviewElement.select("span.review-votes").first();
+            if (helpRatio != null) {
+                Pattern pattern = Pattern.compile("([\\d]+) of ([\\d]+) people found the following review helpful");
+                Matcher matcher = pattern.matcher(helpRatio.ownText());
+                if (matcher.find())
+                    review.setHelpRatio(Float.parseFloat(matcher.group(1)) / Float.parseFloat(matcher.group(2)));
+            }
+
+            // review text
+            Element text = reviewElement.select("span.review-text").first();
+            if (text != null)
+                review.setText(text.ownText());
+
+            reviews.put(review.getName(), review);
+        }
+
+        return reviews;
+    }
+}
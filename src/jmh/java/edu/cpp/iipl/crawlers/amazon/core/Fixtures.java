@@ -0,0 +1,51 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Saved pages under src/test/resources/fixtures
+ */
+final class Fixtures {
+
+    // base uri of the saved pages
+    static final String BASE_URI = "http://www.amazon.com/";
+
+    private Fixtures() {}
+
+    /**
+     * Read a fixture as string
+     * @param name              File name, e.g. "reviews-10.html"
+     * @return                  Raw HTML
+     * @throws IOException
+     */
+    static String html(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null)
+                throw new IOException("Fixture " + name + " not found");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Read a fixture as Jsoup Document
+     * @param name              File name, e.g. "reviews-10.html"
+     * @return                  Parsed document
+     * @throws IOException
+     */
+    static Document page(String name) throws IOException {
+        return Jsoup.parse(html(name), BASE_URI);
+    }
+}
@@ -0,0 +1,50 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import edu.cpp.iipl.crawlers.amazon.model.Product;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency distribution of ProductCrawler.parsePage
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductParseBenchmark {
+
+    // product-small.html has a few scripts, product-large.html has 40 scripts and a long page
+    @Param({"small", "large"})
+    public String size;
+
+    private ProductCrawler crawler;
+
+    private String html;
+
+    private Document page;
+
+    @Setup
+    public void setup() throws IOException {
+        crawler = new ProductCrawler();
+        html = Fixtures.html("product-" + size + ".html");
+        page = Jsoup.parse(html, Fixtures.BASE_URI);
+    }
+
+    // extraction only, on an already built DOM
+    @Benchmark
+    public Product parsePage() {
+        return crawler.parsePage(page);
+    }
+
+    // DOM building included, as done for every fetched page
+    @Benchmark
+    public Product parseHtml() {
+        return crawler.parsePage(Jsoup.parse(html, Fixtures.BASE_URI));
+    }
+}
@@ -0,0 +1,51 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import edu.cpp.iipl.crawlers.amazon.model.Review;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency distribution of ReviewCrawler.parsePage
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReviewParseBenchmark {
+
+    // number of reviews on the page, Amazon shows 10 but short and long pages happen
+    @Param({"1", "10", "50"})
+    public int reviews;
+
+    private ReviewCrawler crawler;
+
+    private String html;
+
+    private Document page;
+
+    @Setup
+    public void setup() throws IOException {
+        crawler = new ReviewCrawler();
+        html = Fixtures.html("reviews-" + reviews + ".html");
+        page = Jsoup.parse(html, Fixtures.BASE_URI);
+    }
+
+    // extraction only, on an already built DOM
+    @Benchmark
+    public Map<String, Review> parsePage() {
+        return crawler.parsePage(page);
+    }
+
+    // DOM building included, as done for every fetched page
+    @Benchmark
+    public Map<String, Review> parseHtml() {
+        return crawler.parsePage(Jsoup.parse(html, Fixtures.BASE_URI));
+    }
+}
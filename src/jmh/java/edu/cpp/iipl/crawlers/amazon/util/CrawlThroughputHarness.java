@@ -0,0 +1,125 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import edu.cpp.iipl.crawlers.amazon.core.CrawlStats;
+import edu.cpp.iipl.crawlers.amazon.core.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * End-to-end throughput of CommandLine batch mode against FakeAmazonServer,
+ * at several concurrency levels. Nothing is sent to amazon.com.
+ *
+ * Usage: java -cp target/benchmarks.jar edu.cpp.iipl.crawlers.amazon.util.CrawlThroughputHarness [key=value ...]
+ *
+ *  products=40         Number of products in the batch
+ *  reviews=95          Number of reviews of each product
+ *  latency=20          Server latency in ms
+ *  errors=0            Fraction of requests answered with 503
+ *  robots=0            Fraction of requests answered with a robot check page
+ *  rps=0               Server side limit of requests per second, 0 for no limit
+ *  levels=1,4,16       Concurrency levels, each used for both -p and -t
+ *  options=-m          Extra crawler options, e.g. -ma
+ */
+public class CrawlThroughputHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> conf = new HashMap<>();
+        conf.put("products", "40");
+        conf.put("reviews", "95");
+        conf.put("latency", "20");
+        conf.put("errors", "0");
+        conf.put("robots", "0");
+        conf.put("rps", "0");
+        conf.put("levels", "1,4,16");
+        conf.put("options", "-m");
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length == 2)
+                conf.put(kv[0], kv[1]);
+        }
+
+        FakeAmazonServer server = new FakeAmazonServer(
+                Integer.parseInt(conf.get("reviews")),
+                Integer.parseInt(conf.get("latency")),
+                Double.parseDouble(conf.get("errors")),
+                Integer.parseInt(conf.get("rps")));
+        server.setRobotCheckRate(Double.parseDouble(conf.get("robots")));
+        server.start();
+
+        File work = Files.createTempDirectory("crawl-harness").toFile();
+        try {
+            File taskFile = writeTasks(work, Integer.parseInt(conf.get("products")));
+
+            System.out.println("Server " + server.getBaseUrl() + ", " + conf);
+            System.out.println(String.format("%6s %10s %12s %9s %9s %9s %8s %8s %8s",
+                    "level", "pages/s", "reviews/s", "p50 ms", "p90 ms", "p99 ms", "retries", "blocked", "failed"));
+
+            for (String level : conf.get("levels").split(",")) {
+                File dir = new File(work, "out-" + level);
+                String[] crawlArgs = {conf.get("options") + "b",
+                        "-p", level.trim(), "-t", level.trim(),
+                        "-u", server.getBaseUrl(),
+                        taskFile.getPath(), dir.getPath()};
+
+                CrawlStats stats = runQuietly(crawlArgs);
+                if (stats == null)
+                    continue;
+
+                double seconds = Math.max(stats.getElapsedMillis(), 1) / 1000.0;
+                LatencyHistogram latency = stats.getFetchLatency();
+                System.out.println(String.format("%6s %10.1f %12.1f %9.1f %9.1f %9.1f %8d %8d %8d",
+                        level.trim(), stats.getPages() / seconds, stats.getReviews() / seconds,
+                        latency.getPercentile(50) / 1000.0, latency.getPercentile(90) / 1000.0,
+                        latency.getPercentile(99) / 1000.0, stats.getRetries(), stats.getBlockedPages(),
+                        stats.getFailedPages()));
+            }
+
+            System.out.println("Server handled " + server.getRequests() + " requests, "
+                    + server.getErrors() + " errors, " + server.getThrottled() + " throttled, "
+                    + server.getRobotChecks() + " robot checks");
+        } finally {
+            server.stop();
+            delete(work);
+        }
+    }
+
+    // ASIN list in "ASIN::product name" format
+    private static File writeTasks(File work, int numOfProducts) throws IOException {
+        File taskFile = new File(work, "asins.txt");
+        try (PrintWriter pw = new PrintWriter(taskFile, "UTF-8")) {
+            for (int i = 0; i < numOfProducts; ++i)
+                pw.println(String.format("B%09d::Product %d", i, i));
+        }
+        return taskFile;
+    }
+
+    // run the crawler without its per-product output
+    private static CrawlStats runQuietly(String[] crawlArgs) throws IOException {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            return CommandLine.run(crawlArgs);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static void delete(File root) throws IOException {
+        Files.walk(root.toPath())
+                .sorted(Comparator.reverseOrder())
+                .map(java.nio.file.Path::toFile)
+                .forEach(File::delete);
+    }
+}
@@ -0,0 +1,277 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in of Amazon serving the saved pages under
+ * src/test/resources/fixtures, for /dp/{asin} and /product-reviews/{asin}.
+ * Every product has the same number of reviews, spread over pages of 10.
+ * Latency, error rate and throttling are configurable.
+ */
+public class FakeAmazonServer {
+
+    private static final Pattern PRODUCT_PATH = Pattern.compile("^/dp/([0-9A-Za-z]{10})");
+    private static final Pattern REVIEWS_PATH = Pattern.compile("^/product-reviews/([0-9A-Za-z]{10})");
+    private static final Pattern PAGE_NUMBER = Pattern.compile("pageNumber=(\\d+)");
+    private static final String NEWEST_FIRST = "sortBy=recent";
+
+    // id of the review in the review template
+    private static final String TEMPLATE_ID = "R0000000000000";
+
+    private final HttpServer server_;
+    private final ExecutorService executor_;
+
+    // pages built from the fixtures
+    private final String productPage_;
+    private final String reviewsHeader_;
+    private final String reviewTemplate_;
+    private final String reviewsFooter_;
+    private final String robotCheckPage_;
+
+    // behavior
+    private final int numOfReviews_;
+    private final int latencyMillis_;
+    private final double errorRate_;
+    private final int maxRequestsPerSecond_;
+    private volatile double robotCheckRate_ = 0;
+
+    // throttling window
+    private long windowStart_ = System.currentTimeMillis();
+    private int windowRequests_ = 0;
+
+    // counters
+    private final AtomicLong requests_ = new AtomicLong();
+    private final AtomicLong errors_ = new AtomicLong();
+    private final AtomicLong throttled_ = new AtomicLong();
+    private final AtomicLong notModified_ = new AtomicLong();
+    private final AtomicLong robotChecks_ = new AtomicLong();
+    private final AtomicLong bytesSent_ = new AtomicLong();
+
+    /**
+     * @param numOfReviews          Number of reviews of every product
+     * @param latencyMillis         Delay before each response
+     * @param errorRate             Fraction of requests answered with 503, between 0 and 1
+     * @param maxRequestsPerSecond  Requests beyond this rate are answered with 503, 0 for no limit
+     * @throws IOException
+     */
+    public FakeAmazonServer(int numOfReviews, int latencyMillis, double errorRate, int maxRequestsPerSecond)
+            throws IOException {
+        this.numOfReviews_ = numOfReviews;
+        this.latencyMillis_ = latencyMillis;
+        this.errorRate_ = errorRate;
+        this.maxRequestsPerSecond_ = maxRequestsPerSecond;
+
+        this.robotCheckPage_ = fixture("robot-check.html");
+        this.productPage_ = fixture("product-small.html")
+                .replace("1,234 customer reviews", String.format("%,d customer reviews", numOfReviews));
+
+        // header, one review, footer, one per line
+        String[] lines = fixture("reviews-1.html").split("\n");
+        this.reviewsHeader_ = lines[0];
+        this.reviewTemplate_ = lines[1];
+        this.reviewsFooter_ = lines[2];
+
+        this.server_ = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        this.executor_ = Executors.newCachedThreadPool();
+        this.server_.setExecutor(executor_);
+        this.server_.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server_.start();
+    }
+
+    public void stop() {
+        server_.stop(0);
+        executor_.shutdownNow();
+    }
+
+    /**
+     * Base url to be given to the crawlers
+     * @return                  e.g. http://127.0.0.1:54321
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server_.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return requests_.get();
+    }
+
+    public long getErrors() {
+        return errors_.get();
+    }
+
+    public long getThrottled() {
+        return throttled_.get();
+    }
+
+    /**
+     * Answer a fraction of the requests with a robot check page
+     * @param robotCheckRate        Fraction of requests, between 0 and 1
+     */
+    public void setRobotCheckRate(double robotCheckRate) {
+        this.robotCheckRate_ = robotCheckRate;
+    }
+
+    public long getRobotChecks() {
+        return robotChecks_.get();
+    }
+
+    public long getNotModified() {
+        return notModified_.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent_.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests_.incrementAndGet();
+
+            if (latencyMillis_ > 0)
+                Thread.sleep(latencyMillis_);
+
+            if (isThrottled()) {
+                throttled_.incrementAndGet();
+                respond(exchange, 503, "Service Unavailable");
+                return;
+            }
+
+            if (errorRate_ > 0 && ThreadLocalRandom.current().nextDouble() < errorRate_) {
+                errors_.incrementAndGet();
+                respond(exchange, 503, "Service Unavailable");
+                return;
+            }
+
+            // robot checks come with a success status
+            if (robotCheckRate_ > 0 && ThreadLocalRandom.current().nextDouble() < robotCheckRate_) {
+                robotChecks_.incrementAndGet();
+                respond(exchange, 200, robotCheckPage_);
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getQuery();
+
+            Matcher product = PRODUCT_PATH.matcher(path);
+            if (product.find()) {
+                respond(exchange, productPage_);
+                return;
+            }
+
+            Matcher reviews = REVIEWS_PATH.matcher(path);
+            if (reviews.find()) {
+                Matcher page = PAGE_NUMBER.matcher(query == null ? "" : query);
+                int nPage = page.find() ? Integer.parseInt(page.group(1)) : 1;
+                boolean newestFirst = query != null && query.contains(NEWEST_FIRST);
+                respond(exchange, reviewsPage(reviews.group(1), nPage, newestFirst));
+                return;
+            }
+
+            respond(exchange, 404, "Not Found");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // requests of current second beyond the limit are throttled
+    private synchronized boolean isThrottled() {
+        if (maxRequestsPerSecond_ <= 0)
+            return false;
+
+        long now = System.currentTimeMillis();
+        if (now - windowStart_ >= 1000) {
+            windowStart_ = now;
+            windowRequests_ = 0;
+        }
+
+        return ++windowRequests_ > maxRequestsPerSecond_;
+    }
+
+    // 10 reviews per page, short last page, empty pages past it,
+    // reviews are numbered in the order they were posted
+    private String reviewsPage(String asin, int nPage, boolean newestFirst) {
+        int first = (nPage - 1) * 10;
+        int count = Math.max(0, Math.min(10, numOfReviews_ - first));
+
+        StringBuilder sb = new StringBuilder(reviewsHeader_).append('\n');
+        for (int i = 0; i < count; ++i) {
+            int index = newestFirst ? numOfReviews_ - 1 - (first + i) : first + i;
+            String id = String.format("R%s%05d", asin, index);
+            sb.append(reviewTemplate_.replace(TEMPLATE_ID, id)).append('\n');
+        }
+        sb.append(reviewsFooter_);
+
+        return sb.toString();
+    }
+
+    // pages carry an ETag, so that revalidation of a cached page gets a 304
+    private void respond(HttpExchange exchange, String body) throws IOException {
+        String eTag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        exchange.getResponseHeaders().set("ETag", eTag);
+
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified_.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        respond(exchange, 200, body);
+    }
+
+    // bodies are gzipped when the client accepts it
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept != null && accept.contains("gzip")) {
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+                gzip.write(bytes);
+            }
+            bytes = gzipped.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        bytesSent_.addAndGet(bytes.length);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String fixture(String name) throws IOException {
+        try (InputStream in = FakeAmazonServer.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null)
+                throw new IOException("Fixture " + name + " not found");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
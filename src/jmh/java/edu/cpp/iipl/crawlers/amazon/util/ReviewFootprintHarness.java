@@ -0,0 +1,95 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import edu.cpp.iipl.crawlers.amazon.core.ReviewCrawler;
+import edu.cpp.iipl.crawlers.amazon.model.Review;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Heap taken by the reviews kept in memory, as a HashMap of Review objects
+ * against a CompactReviewStore. Reviews are crawled from FakeAmazonServer,
+ * then copied into each structure in turn, measuring the heap used after
+ * a full GC before and after.
+ *
+ * Usage: java -cp target/benchmarks.jar edu.cpp.iipl.crawlers.amazon.util.ReviewFootprintHarness [key=value ...]
+ *
+ *  products=100        Number of products crawled
+ *  reviews=500         Number of reviews of each product
+ */
+public class ReviewFootprintHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> conf = new HashMap<>();
+        conf.put("products", "100");
+        conf.put("reviews", "500");
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length == 2)
+                conf.put(kv[0], kv[1]);
+        }
+
+        int numOfProducts = Integer.parseInt(conf.get("products"));
+        CompactReviewStore crawled = crawl(numOfProducts, Integer.parseInt(conf.get("reviews")));
+        int n = crawled.size();
+        System.out.println("Crawled " + n + " reviews of " + numOfProducts + " products");
+
+        // HashMap of review objects, as held before the store
+        long base = usedAfterGc();
+        Map<String, Review> map = new HashMap<>();
+        for (int row = 0; row < n; ++row) {
+            Review review = crawled.getReview(row);
+            map.put(review.getName(), review);
+        }
+        long mapBytes = usedAfterGc() - base;
+        if (map.size() != n)
+            throw new IllegalStateException("Map of " + map.size() + " reviews");
+        map = null;
+
+        // the same reviews in a store
+        base = usedAfterGc();
+        CompactReviewStore store = new CompactReviewStore();
+        for (int row = 0; row < n; ++row)
+            store.add(crawled.getAsin(row), crawled.getReview(row));
+        long storeBytes = usedAfterGc() - base;
+        if (store.size() != n)
+            throw new IllegalStateException("Store of " + store.size() + " reviews");
+
+        System.out.println(String.format("%-20s %12s %14s", "", "heap MB", "bytes/review"));
+        System.out.println(String.format("%-20s %12.1f %14.1f", "HashMap<Review>",
+                mapBytes / 1e6, (double) mapBytes / n));
+        System.out.println(String.format("%-20s %12.1f %14.1f", "CompactReviewStore",
+                storeBytes / 1e6, (double) storeBytes / n));
+        System.out.println(String.format("Store is %.1fx smaller, its own estimate %.1f MB",
+                (double) mapBytes / Math.max(storeBytes, 1), store.getFootprintBytes() / 1e6));
+    }
+
+    // the reviews of all the products, through the in-memory crawl
+    private static CompactReviewStore crawl(int numOfProducts, int numOfReviews) throws Exception {
+        FakeAmazonServer server = new FakeAmazonServer(numOfReviews, 0, 0, 0);
+        server.start();
+        try {
+            ReviewCrawler rc = new ReviewCrawler();
+            rc.setBaseUrl_(server.getBaseUrl());
+
+            CompactReviewStore reviews = new CompactReviewStore();
+            for (int i = 0; i < numOfProducts; ++i)
+                rc.crawlReviews(String.format("B%09d", i), reviews);
+            return reviews;
+        } finally {
+            server.stop();
+        }
+    }
+
+    // heap in use once the garbage is collected
+    private static long usedAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
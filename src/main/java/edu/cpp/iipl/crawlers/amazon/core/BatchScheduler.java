@@ -0,0 +1,92 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a fixed number of products in flight at once.
+ * Submitting blocks while all the slots are taken.
+ */
+public class BatchScheduler {
+
+    /**
+     * Crawls one product and returns the number of reviews obtained
+     */
+    public interface ProductTask {
+        int crawl(String asin) throws Exception;
+    }
+
+    /**
+     * Called once a product is done, successfully or not
+     */
+    public interface ProductListener {
+        void onProductDone(String asin, int numOfReviews, long timeCost, Exception error);
+    }
+
+    // workers for products in flight
+    private final ExecutorService es_;
+
+    // free slots for products
+    private final Semaphore slots_;
+
+    // optional statistics
+    private CrawlStats stats_ = null;
+
+    public BatchScheduler(int numOfProducts) {
+        this.es_ = Executors.newFixedThreadPool(numOfProducts);
+        this.slots_ = new Semaphore(numOfProducts);
+    }
+
+    public void setStats(CrawlStats stats) {
+        this.stats_ = stats;
+    }
+
+    /**
+     * Submit a product, waiting for a free slot if necessary
+     * @param asin              Amazon ASIN of the product
+     * @param task              Crawling task of the product
+     * @param listener          Callback when the product is done (can be null)
+     * @throws InterruptedException
+     */
+    public void submit(final String asin, final ProductTask task, final ProductListener listener)
+            throws InterruptedException {
+        slots_.acquire();
+
+        es_.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                int numOfReviews = 0;
+                Exception error = null;
+                try {
+                    numOfReviews = task.crawl(asin);
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    slots_.release();
+                }
+
+                if (stats_ != null)
+                    stats_.addProduct();
+
+                if (listener != null)
+                    listener.onProductDone(asin, numOfReviews, System.currentTimeMillis() - start, error);
+            }
+        });
+    }
+
+    /**
+     * Wait for all the submitted products to finish
+     */
+    public void shutdown() {
+        es_.shutdown();
+        try {
+            while (!es_.awaitTermination(1, TimeUnit.MINUTES));
+        } catch (InterruptedException e) {
+            // left to the caller, the products keep running
+            Thread.currentThread().interrupt();
+        }
+    }
+}
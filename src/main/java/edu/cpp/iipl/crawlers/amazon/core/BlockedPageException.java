@@ -0,0 +1,23 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.io.IOException;
+
+/**
+ * A page fetched with a success status, but not worth parsing.
+ * Retried like any other failed fetch.
+ */
+public class BlockedPageException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final PageClassifier.Verdict verdict_;
+
+    public BlockedPageException(String url, PageClassifier.Verdict verdict) {
+        super("Blocked page (" + verdict + "): " + url);
+        this.verdict_ = verdict;
+    }
+
+    public PageClassifier.Verdict getVerdict() {
+        return verdict_;
+    }
+}
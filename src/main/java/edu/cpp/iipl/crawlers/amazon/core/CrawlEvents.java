@@ -0,0 +1,107 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the stages of a page: fetch, backoff
+ * before a retry, parse and persist. They show up under "Amazon Crawler"
+ * in JMC, next to the GC and thread activity of the recording:
+ *
+ *   java -XX:StartFlightRecording=filename=crawl.jfr ... AmazonCrawler ...
+ *
+ * Fields are only filled in when the event is committed, so the events
+ * cost next to nothing while no recording is running.
+ */
+public final class CrawlEvents {
+
+    private CrawlEvents() {
+    }
+
+    @Name("edu.cpp.iipl.crawlers.amazon.Fetch")
+    @Label("Page Fetch")
+    @Description("One attempt of fetching a page, network wait included")
+    @Category("Amazon Crawler")
+    @StackTrace(false)
+    public static class FetchEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Attempt")
+        public int attempt;
+
+        @Label("Status")
+        public int status;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Outcome")
+        @Description("ok, cache hit, not modified, or the cause of the failure")
+        public String outcome;
+    }
+
+    @Name("edu.cpp.iipl.crawlers.amazon.Backoff")
+    @Label("Retry Backoff")
+    @Description("Wait before retrying a failed fetch")
+    @Category("Amazon Crawler")
+    @StackTrace(false)
+    public static class BackoffEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Attempt")
+        @Description("Attempt failed, from 1")
+        public int attempt;
+
+        @Label("Cause")
+        public String cause;
+    }
+
+    @Name("edu.cpp.iipl.crawlers.amazon.Parse")
+    @Label("Page Parse")
+    @Description("Building the DOM of a page, or extracting its product or reviews")
+    @Category("Amazon Crawler")
+    @StackTrace(false)
+    public static class ParseEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Phase")
+        @Description("dom or extract")
+        public String phase;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Reviews")
+        public int reviews;
+    }
+
+    @Name("edu.cpp.iipl.crawlers.amazon.Persist")
+    @Label("Reviews Persist")
+    @Description("Storing the reviews of a page")
+    @Category("Amazon Crawler")
+    @StackTrace(false)
+    public static class PersistEvent extends Event {
+        @Label("ASIN")
+        public String asin;
+
+        @Label("Page")
+        public int page;
+
+        @Label("Reviews")
+        public int reviews;
+
+        @Label("Outcome")
+        @Description("ok, or the exception thrown")
+        public String outcome;
+    }
+}
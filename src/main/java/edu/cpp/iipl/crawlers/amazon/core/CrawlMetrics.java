@@ -0,0 +1,225 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Metrics of a run gathered from the components shared by its crawlers:
+ * counters and fetch/parse/write latencies of the statistics, depths of
+ * the pipeline stages, and the counters of the page cache, the retry
+ * policy and the host limits when used. Components not used are reported
+ * as 0. Exposed over JMX once registered, and read by MetricsReporter.
+ */
+public class CrawlMetrics implements CrawlMetricsMBean {
+
+    // name of the MBean
+    public static final String OBJECT_NAME = "edu.cpp.iipl.crawlers.amazon:type=CrawlMetrics";
+
+    private final CrawlStats stats_;
+
+    private CrawlPipeline pipeline_ = null;
+
+    private PageCache pageCache_ = null;
+
+    private RetryPolicy retryPolicy_ = null;
+
+    private FetchLimiter fetchLimiter_ = null;
+
+    // name under which the MBean is registered, null if not registered
+    private ObjectName objectName_ = null;
+
+    public CrawlMetrics(CrawlStats stats) {
+        this.stats_ = stats;
+    }
+
+    public CrawlStats getStats() {
+        return stats_;
+    }
+
+    public void setPipeline(CrawlPipeline pipeline) {
+        this.pipeline_ = pipeline;
+    }
+
+    public void setPageCache(PageCache pageCache) {
+        this.pageCache_ = pageCache;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy_ = retryPolicy;
+    }
+
+    public void setFetchLimiter(FetchLimiter fetchLimiter) {
+        this.fetchLimiter_ = fetchLimiter;
+    }
+
+    /**
+     * Register the MBean in the platform MBean server
+     * @return                  False if another run of the JVM already registered one
+     */
+    public synchronized boolean register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                return false;
+
+            server.registerMBean(this, name);
+            objectName_ = name;
+            return true;
+        } catch (JMException e) {
+            return false;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName_ == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName_);
+        } catch (JMException e) {
+            // already gone
+        }
+        objectName_ = null;
+    }
+
+    @Override
+    public long getElapsedSeconds() {
+        return stats_.getElapsedMillis() / 1000;
+    }
+
+    @Override
+    public long getProducts() {
+        return stats_.getProducts();
+    }
+
+    @Override
+    public long getPages() {
+        return stats_.getPages();
+    }
+
+    @Override
+    public long getReviews() {
+        return stats_.getReviews();
+    }
+
+    @Override
+    public double getPagesPerSecond() {
+        return stats_.getPages() * 1000.0 / Math.max(stats_.getElapsedMillis(), 1);
+    }
+
+    @Override
+    public double getReviewsPerSecond() {
+        return stats_.getReviews() * 1000.0 / Math.max(stats_.getElapsedMillis(), 1);
+    }
+
+    @Override
+    public long getBytesDownloaded() {
+        return stats_.getBytes();
+    }
+
+    @Override
+    public long getRetries() {
+        return stats_.getRetries();
+    }
+
+    // e.g. "http 503=12, timeout=3"
+    @Override
+    public String getRetriesByCause() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : stats_.getRetriesByCause().entrySet()) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public long getBlockedPages() {
+        return stats_.getBlockedPages();
+    }
+
+    @Override
+    public long getFailedPages() {
+        return stats_.getFailedPages();
+    }
+
+    @Override
+    public double getFetchP50Millis() {
+        return stats_.getFetchLatency().getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getFetchP99Millis() {
+        return stats_.getFetchLatency().getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getParseP50Millis() {
+        return stats_.getParseLatency().getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getParseP99Millis() {
+        return stats_.getParseLatency().getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getWriteP50Millis() {
+        return stats_.getWriteLatency().getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getWriteP99Millis() {
+        return stats_.getWriteLatency().getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public int getFetchQueueDepth() {
+        return pipeline_ != null ? pipeline_.getFetch().getQueueDepth() : 0;
+    }
+
+    @Override
+    public int getParseQueueDepth() {
+        return pipeline_ != null ? pipeline_.getParse().getQueueDepth() : 0;
+    }
+
+    @Override
+    public int getPersistQueueDepth() {
+        return pipeline_ != null ? pipeline_.getPersist().getQueueDepth() : 0;
+    }
+
+    @Override
+    public int getFetchActive() {
+        return pipeline_ != null ? pipeline_.getFetch().getActiveCount() : 0;
+    }
+
+    @Override
+    public int getParseActive() {
+        return pipeline_ != null ? pipeline_.getParse().getActiveCount() : 0;
+    }
+
+    @Override
+    public int getPersistActive() {
+        return pipeline_ != null ? pipeline_.getPersist().getActiveCount() : 0;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return pageCache_ != null ? pageCache_.getHits() : 0;
+    }
+
+    @Override
+    public long getRequestsHeld() {
+        return retryPolicy_ != null ? retryPolicy_.getHeld() : 0;
+    }
+
+    @Override
+    public String getHosts() {
+        return fetchLimiter_ != null ? fetchLimiter_.toString() : "";
+    }
+}
@@ -0,0 +1,60 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+/**
+ * Attributes of a run exposed over JMX, see CrawlMetrics.
+ * Latencies are in milliseconds, over the whole run.
+ */
+public interface CrawlMetricsMBean {
+
+    long getElapsedSeconds();
+
+    long getProducts();
+
+    long getPages();
+
+    long getReviews();
+
+    double getPagesPerSecond();
+
+    double getReviewsPerSecond();
+
+    long getBytesDownloaded();
+
+    long getRetries();
+
+    String getRetriesByCause();
+
+    long getBlockedPages();
+
+    long getFailedPages();
+
+    double getFetchP50Millis();
+
+    double getFetchP99Millis();
+
+    double getParseP50Millis();
+
+    double getParseP99Millis();
+
+    double getWriteP50Millis();
+
+    double getWriteP99Millis();
+
+    int getFetchQueueDepth();
+
+    int getParseQueueDepth();
+
+    int getPersistQueueDepth();
+
+    int getFetchActive();
+
+    int getParseActive();
+
+    int getPersistActive();
+
+    long getCacheHits();
+
+    long getRequestsHeld();
+
+    String getHosts();
+}
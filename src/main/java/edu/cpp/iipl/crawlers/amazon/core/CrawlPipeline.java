@@ -0,0 +1,59 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+/**
+ * Review pages go through three stages, each with its own workers and
+ * bounded queue: fetch (network), parse (Jsoup/regex) and persist (sink).
+ * A slow stage fills up its own queue first, and only then throttles the
+ * stage feeding it.
+ */
+public class CrawlPipeline {
+
+    // default number of tasks waiting in the parse and persist stages
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    // default number of persist workers
+    public static final int DEFAULT_PERSIST_THREADS = 2;
+
+    private final FetchEngine fetch_;
+
+    private final Stage parse_;
+
+    private final Stage persist_;
+
+    public CrawlPipeline(FetchEngine fetch) {
+        this(fetch, Runtime.getRuntime().availableProcessors(), DEFAULT_PERSIST_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    public CrawlPipeline(FetchEngine fetch, int parseThreads, int persistThreads, int queueSize) {
+        this.fetch_ = fetch;
+        this.parse_ = new Stage("parse", parseThreads, queueSize);
+        this.persist_ = new Stage("persist", persistThreads, queueSize);
+    }
+
+    public FetchEngine getFetch() {
+        return fetch_;
+    }
+
+    public Stage getParse() {
+        return parse_;
+    }
+
+    public Stage getPersist() {
+        return persist_;
+    }
+
+    public void shutdown() {
+        fetch_.shutdown();
+        parse_.shutdown();
+        persist_.shutdown();
+    }
+
+    /**
+     * Queue depth of each stage
+     * @return                  e.g. "fetch 8/8 busy, 12/64 queued | parse ..."
+     */
+    @Override
+    public String toString() {
+        return fetch_ + " | " + parse_ + " | " + persist_;
+    }
+}
@@ -0,0 +1,160 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate counters shared by the crawlers of one run
+ */
+public class CrawlStats {
+
+    // starting time of the run
+    private final long startTime = System.currentTimeMillis();
+
+    // number of pages fetched
+    private final AtomicLong pages = new AtomicLong();
+
+    // number of reviews parsed
+    private final AtomicLong reviews = new AtomicLong();
+
+    // number of products done
+    private final AtomicLong products = new AtomicLong();
+
+    // number of products skipped since unchanged since the last crawl
+    private final AtomicLong unchangedProducts = new AtomicLong();
+
+    // number of retried page fetches
+    private final AtomicLong retries = new AtomicLong();
+
+    // number of retried page fetches by cause, e.g. "http 503" or "timeout"
+    private final Map<String, AtomicLong> retriesByCause = new ConcurrentHashMap<>();
+
+    // number of robot checks, error pages and truncated pages received
+    private final AtomicLong blockedPages = new AtomicLong();
+
+    // number of pages given up after all the retries
+    private final AtomicLong failedPages = new AtomicLong();
+
+    // size of the page bodies downloaded, pages from the cache excluded
+    private final AtomicLong bytes = new AtomicLong();
+
+    // latency of each fetch attempt
+    private final LatencyHistogram fetchLatency = new LatencyHistogram();
+
+    // latency of the extraction of a parsed page
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+
+    // latency of storing the reviews of a page
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    public void addPage() {
+        pages.incrementAndGet();
+    }
+
+    public void addReviews(int n) {
+        reviews.addAndGet(n);
+    }
+
+    public void addProduct() {
+        products.incrementAndGet();
+    }
+
+    public void addUnchangedProduct() {
+        unchangedProducts.incrementAndGet();
+    }
+
+    public void addRetry(String cause) {
+        retries.incrementAndGet();
+
+        AtomicLong n = retriesByCause.get(cause);
+        if (n == null) {
+            retriesByCause.putIfAbsent(cause, new AtomicLong());
+            n = retriesByCause.get(cause);
+        }
+        n.incrementAndGet();
+    }
+
+    public void addBytes(long n) {
+        bytes.addAndGet(n);
+    }
+
+    public void addBlockedPage() {
+        blockedPages.incrementAndGet();
+    }
+
+    public void addFailedPage() {
+        failedPages.incrementAndGet();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getReviews() {
+        return reviews.get();
+    }
+
+    public long getProducts() {
+        return products.get();
+    }
+
+    public long getUnchangedProducts() {
+        return unchangedProducts.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    // sorted by cause
+    public Map<String, Long> getRetriesByCause() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : retriesByCause.entrySet())
+            map.put(entry.getKey(), entry.getValue().get());
+        return map;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getBlockedPages() {
+        return blockedPages.get();
+    }
+
+    public long getFailedPages() {
+        return failedPages.get();
+    }
+
+    public LatencyHistogram getFetchLatency() {
+        return fetchLatency;
+    }
+
+    public LatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * One line summary of the aggregate throughput
+     * @return                  Summary string
+     */
+    public String summary() {
+        double seconds = Math.max(getElapsedMillis(), 1) / 1000.0;
+
+        return String.format("%d products (%d unchanged), %d pages, %d reviews in %.1fs (%.2f pages/s, %.2f reviews/s), "
+                        + "%d retries, %d blocked pages, %d failed pages, fetch %s",
+                getProducts(), getUnchangedProducts(), getPages(), getReviews(), seconds,
+                getPages() / seconds, getReviews() / seconds,
+                getRetries(), getBlockedPages(), getFailedPages(), fetchLatency.summary());
+    }
+}
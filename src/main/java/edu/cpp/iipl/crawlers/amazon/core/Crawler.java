@@ -1,43 +1,140 @@
 package edu.cpp.iipl.crawlers.amazon.core;
 
 import edu.cpp.iipl.crawlers.amazon.util.Logger;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by xing on 12/22/15.
  */
 public class Crawler {
 
-    // maximum retry times
-    private int maxRetries_ = 10;
+    // default site to be crawled
+    public static final String DEFAULT_BASE_URL = "http://www.amazon.com";
 
-    // increment amount for each retry
-    private int increment_ = 5000;
+    // site to be crawled, page urls are relative to it
+    private String baseUrl_ = DEFAULT_BASE_URL;
+
+    // backoff, retry budget and circuit breakers, shared among crawlers
+    protected RetryPolicy retryPolicy_ = new RetryPolicy();
+
+    // permits of concurrent page fetches, shared among crawlers (null for no limit)
+    protected Semaphore fetchPermits_ = null;
+
+    // statistics shared among crawlers (can be null)
+    protected CrawlStats stats_ = null;
+
+    // whether pages are fetched without blocking a thread per page
+    protected boolean asyncFetch_ = false;
+
+    // cache of fetched pages, shared among crawlers (null for no cache)
+    protected PageCache pageCache_ = null;
 
     // logger
     protected Logger logger;
 
+    // per-host rate and concurrency limits, shared among crawlers (null for no limit)
+    protected FetchLimiter fetchLimiter_ = null;
+
+    // transport of the page fetches, shared among crawlers (null for the default one)
+    protected FetchTransport transport_ = null;
+
     public Crawler() {
         this.logger = new Logger();
     }
 
+    // maximum attempts of a page
     public int getMaxRetries_() {
-        return maxRetries_;
+        return retryPolicy_.getMaxRetries();
     }
 
     public void setMaxRetries_(int maxRetries_) {
-        this.maxRetries_ = maxRetries_;
+        retryPolicy_.setMaxRetries(maxRetries_);
     }
 
+    // base delay of the exponential backoff
     public int getIncrement_() {
-        return increment_;
+        return retryPolicy_.getBaseDelayMillis();
     }
 
     public void setIncrement_(int increment_) {
-        this.increment_ = increment_;
+        retryPolicy_.setBaseDelayMillis(increment_);
+    }
+
+    public RetryPolicy getRetryPolicy_() {
+        return retryPolicy_;
+    }
+
+    public void setRetryPolicy_(RetryPolicy retryPolicy_) {
+        this.retryPolicy_ = retryPolicy_;
+    }
+
+    public String getBaseUrl_() {
+        return baseUrl_;
+    }
+
+    public void setBaseUrl_(String baseUrl_) {
+        // no trailing slash, page urls start with one
+        this.baseUrl_ = baseUrl_.endsWith("/") ? baseUrl_.substring(0, baseUrl_.length() - 1) : baseUrl_;
+    }
+
+    public Semaphore getFetchPermits_() {
+        return fetchPermits_;
+    }
+
+    public void setFetchPermits_(Semaphore fetchPermits_) {
+        this.fetchPermits_ = fetchPermits_;
+    }
+
+    public CrawlStats getStats_() {
+        return stats_;
+    }
+
+    public void setStats_(CrawlStats stats_) {
+        this.stats_ = stats_;
+    }
+
+    public boolean isAsyncFetch_() {
+        return asyncFetch_;
+    }
+
+    public void setAsyncFetch_(boolean asyncFetch_) {
+        this.asyncFetch_ = asyncFetch_;
+    }
+
+    public PageCache getPageCache_() {
+        return pageCache_;
+    }
+
+    public void setPageCache_(PageCache pageCache_) {
+        this.pageCache_ = pageCache_;
+    }
+
+    public FetchLimiter getFetchLimiter_() {
+        return fetchLimiter_;
+    }
+
+    public void setFetchLimiter_(FetchLimiter fetchLimiter_) {
+        this.fetchLimiter_ = fetchLimiter_;
+    }
+
+    public FetchTransport getTransport_() {
+        return transport_ != null ? transport_ : HttpClientTransport.getDefault();
+    }
+
+    public void setTransport_(FetchTransport transport_) {
+        this.transport_ = transport_;
     }
 
     public void enableVerbose() { this.logger.setVerbose(true); }
@@ -51,27 +148,421 @@ public class Crawler {
      * @return              Jsoup Document
      */
     protected Document getPage(String url) {
+        // retries are timers rather than sleeps in asynchronous mode
+        if (asyncFetch_) {
+            try {
+                return getPageAsync(url).join();
+            } catch (CompletionException e) {
+                logger.warn("Failed", "url", url, "error", e.getMessage());
+                return null;
+            }
+        }
+
         // get the HTML page
-        for (int retry = 1; retry <= maxRetries_; ++retry) {
+        for (int attempt = 1; ; ++attempt) {
+            if (!awaitCircuit(url))
+                return null;
+
             try {
-                Document page = Jsoup.connect(url).get();
+                Document page = fetch(url, attempt);
+                retryPolicy_.onSuccess(url);
+
+                if (stats_ != null)
+                    stats_.addPage();
 
                 return page;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
             } catch (IOException e) {
-                logger.warn("IOException (" + url + "). Retrying "
-                        + retry + "/" + maxRetries_
-                        + ". " + e.getMessage());
+                retryPolicy_.onFailure(url);
+
+                long delay = retryPolicy_.retryDelay(attempt);
+                if (delay < 0) {
+                    logger.warn("Failed", "url", url, "attempts", attempt, "error", e.getMessage());
+                    if (stats_ != null)
+                        stats_.addFailedPage();
+                    return null;
+                }
 
-                // incremental waiting
+                logger.warn("Retrying", "url", url, "attempt", attempt, "error", e.getMessage());
+
+                if (stats_ != null)
+                    stats_.addRetry(retryCause(e));
+
+                // jittered exponential waiting
+                CrawlEvents.BackoffEvent backoff = new CrawlEvents.BackoffEvent();
+                backoff.begin();
                 try {
-                    Thread.sleep(3000 + increment_ * retry);
+                    Thread.sleep(delay);
                 } catch (InterruptedException e1) {
-                    e1.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    return null;
+                } finally {
+                    commit(backoff, url, attempt, e);
+                }
+            }
+        }
+    }
+
+    // wait while the circuit of the host is open, without using up attempts, false if interrupted
+    private boolean awaitCircuit(String url) {
+        boolean waiting = false;
+        long delay;
+        while ((delay = retryPolicy_.requestDelay(url, waiting)) > 0) {
+            if (!waiting)
+                logger.warn("Circuit open, waiting", "url", url, "millis", delay);
+            waiting = true;
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the page in Jsoup Document without blocking the calling thread
+     * on network I/O. Retries are scheduled as timers instead of sleeping.
+     * If fetching is limited, a permit is held until the page is done. It is
+     * taken asynchronously from FetchPermits, a plain Semaphore is waited for.
+     * @param url           URL of the webpage
+     * @return              Future of Jsoup Document, completed with null once retries are exhausted
+     */
+    protected CompletableFuture<Document> getPageAsync(final String url) {
+        // fresh pages need no network call at all
+        final PageCache.Entry cached = pageCache_ != null ? pageCache_.lookup(url) : null;
+        if (cached != null && cached.isFresh()) {
+            CrawlEvents.FetchEvent event = new CrawlEvents.FetchEvent();
+            event.begin();
+            commit(event, url, 1, null, null);
+
+            if (stats_ != null)
+                stats_.addPage();
+            return CompletableFuture.completedFuture(parse(cached.getBody(), url));
+        }
+
+        final CompletableFuture<Document> result = new CompletableFuture<>();
+        if (fetchPermits_ == null) {
+            fetchAsync(url, cached, 1, false, result);
+            return result;
+        }
+
+        final Semaphore permits = fetchPermits_;
+        result.whenComplete((page, e) -> permits.release());
+
+        // no thread waits for a permit, the fetch starts once one is released
+        if (permits instanceof FetchPermits) {
+            ((FetchPermits) permits).acquireAsync()
+                    .thenRun(() -> fetchAsync(url, cached, 1, false, result))
+                    .exceptionally(e -> {
+                        result.completeExceptionally(e);
+                        return null;
+                    });
+            return result;
+        }
+
+        // a plain Semaphore can only be waited for
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(null);
+        }
+        fetchAsync(url, cached, 1, false, result);
+        return result;
+    }
+
+    // send one attempt of the request, scheduling the next attempt on failure,
+    // or the same one again while the circuit of the host is open
+    private void fetchAsync(final String url, final PageCache.Entry cached, final int retry,
+                            boolean circuitWaiting, final CompletableFuture<Document> result) {
+        long wait = retryPolicy_.requestDelay(url, circuitWaiting);
+        if (wait > 0) {
+            if (!circuitWaiting)
+                logger.warn("Circuit open, waiting", "url", url, "millis", wait);
+            CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS)
+                    .execute(() -> fetchAsync(url, cached, retry, true, result));
+            return;
+        }
+
+        // no thread waits for the host, the request is sent once it hands out a slot
+        final FetchLimiter.Host host = fetchLimiter_ != null ? fetchLimiter_.get(url) : null;
+        if (host == null) {
+            sendAsync(url, cached, retry, null, result);
+            return;
+        }
+
+        host.acquireAsync().thenRun(() -> sendAsync(url, cached, retry, host, result))
+                .exceptionally(e -> {
+                    result.completeExceptionally(e);
+                    return null;
+                });
+    }
+
+    // send the request holding a slot of the host, if limited
+    private void sendAsync(final String url, final PageCache.Entry cached, final int retry,
+                           final FetchLimiter.Host host, final CompletableFuture<Document> result) {
+        final long start = System.nanoTime();
+        final CrawlEvents.FetchEvent event = new CrawlEvents.FetchEvent();
+        event.begin();
+
+        // a transport throwing instead of failing the future still releases the host
+        CompletableFuture<FetchTransport.Response> request;
+        try {
+            request = getTransport_().fetchAsync(url, conditionalHeaders(cached));
+        } catch (RuntimeException e) {
+            request = new CompletableFuture<>();
+            request.completeExceptionally(e);
+        }
+
+        request.whenComplete((response, e) -> {
+            if (stats_ != null)
+                stats_.getFetchLatency().recordSince(start);
+
+            Document page = null;
+            Throwable failure = e instanceof CompletionException && e.getCause() != null
+                    ? e.getCause() : e;
+            if (failure == null) {
+                try {
+                    page = toDocument(url, cached, response);
+                } catch (IOException | RuntimeException te) {
+                    failure = te;
                 }
             }
+
+            if (host != null)
+                host.release(failure != null && isOverloaded(failure));
+
+            commit(event, url, retry, response, failure);
+
+            if (failure == null) {
+                retryPolicy_.onSuccess(url);
+
+                if (stats_ != null)
+                    stats_.addPage();
+
+                result.complete(page);
+                return;
+            }
+
+            // bugs are not retried
+            if (failure instanceof RuntimeException) {
+                result.completeExceptionally(failure);
+                return;
+            }
+
+            String error = failure instanceof HttpStatusException
+                    ? "HTTP status " + ((HttpStatusException) failure).getStatusCode()
+                    : failure.getClass().getSimpleName() + " " + failure.getMessage();
+
+            retryPolicy_.onFailure(url);
+
+            long delay = retryPolicy_.retryDelay(retry);
+            if (delay < 0) {
+                if (stats_ != null)
+                    stats_.addFailedPage();
+
+                logger.warn("Failed", "url", url, "attempts", retry, "error", error);
+                result.complete(null);
+                return;
+            }
+
+            logger.warn("Retrying", "url", url, "attempt", retry, "error", error);
+
+            if (stats_ != null)
+                stats_.addRetry(retryCause(failure));
+
+            // jittered exponential waiting, on a timer
+            final CrawlEvents.BackoffEvent backoff = new CrawlEvents.BackoffEvent();
+            backoff.begin();
+            final Throwable cause = failure;
+            Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+            delayed.execute(() -> {
+                commit(backoff, url, retry, cause);
+                fetchAsync(url, cached, retry + 1, false, result);
+            });
+        });
+    }
+
+    // fetch the page, holding a permit if fetching is limited
+    private Document fetch(String url, int attempt) throws IOException, InterruptedException {
+        // fresh pages need no network call at all
+        PageCache.Entry cached = pageCache_ != null ? pageCache_.lookup(url) : null;
+        if (cached != null && cached.isFresh()) {
+            CrawlEvents.FetchEvent event = new CrawlEvents.FetchEvent();
+            event.begin();
+            Document page = parse(cached.getBody(), url);
+            commit(event, url, attempt, null, null);
+            return page;
+        }
+
+        if (fetchPermits_ != null)
+            fetchPermits_.acquire();
+
+        try {
+            FetchLimiter.Host host = fetchLimiter_ != null ? fetchLimiter_.get(url) : null;
+            if (host != null)
+                host.acquire();
+
+            boolean overloaded = false;
+            long start = System.nanoTime();
+            CrawlEvents.FetchEvent event = new CrawlEvents.FetchEvent();
+            event.begin();
+            FetchTransport.Response response = null;
+            Throwable failure = null;
+            try {
+                response = getTransport_().fetch(url, conditionalHeaders(cached));
+                return toDocument(url, cached, response);
+            } catch (IOException e) {
+                overloaded = isOverloaded(e);
+                failure = e;
+                throw e;
+            } finally {
+                if (stats_ != null)
+                    stats_.getFetchLatency().recordSince(start);
+                commit(event, url, attempt, response, failure);
+
+                if (host != null)
+                    host.release(overloaded);
+            }
+        } finally {
+            if (fetchPermits_ != null)
+                fetchPermits_.release();
         }
+    }
+
+    // whether the failure is a sign of an overloaded host: 503, 429, timeouts and robot checks
+    private static boolean isOverloaded(Throwable e) {
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).getStatusCode();
+            return status == 429 || status == 503;
+        }
+        if (e instanceof BlockedPageException)
+            return ((BlockedPageException) e).getVerdict() != PageClassifier.Verdict.TRUNCATED;
+
+        return e instanceof java.net.SocketTimeoutException
+                || e instanceof java.net.http.HttpTimeoutException;
+    }
+
+    // short cause of a failed attempt, e.g. "http 503", "robot_check" or "timeout"
+    private static String retryCause(Throwable e) {
+        if (e instanceof HttpStatusException)
+            return "http " + ((HttpStatusException) e).getStatusCode();
+        if (e instanceof BlockedPageException)
+            return ((BlockedPageException) e).getVerdict().toString().toLowerCase();
+        if (e instanceof java.net.SocketTimeoutException || e instanceof java.net.http.HttpTimeoutException)
+            return "timeout";
+
+        return e.getClass().getSimpleName();
+    }
+
+    // validators of a stale cached page
+    private static Map<String, String> conditionalHeaders(PageCache.Entry cached) {
+        if (cached == null)
+            return Collections.emptyMap();
+
+        Map<String, String> headers = new HashMap<>();
+        if (cached.getETag() != null)
+            headers.put("If-None-Match", cached.getETag());
+        if (cached.getLastModified() != null)
+            headers.put("If-Modified-Since", cached.getLastModified());
+        return headers;
+    }
+
+    // parse the response, or the cached page if not modified,
+    // HTTP errors and pages not worth parsing are thrown
+    private Document toDocument(String url, PageCache.Entry cached, FetchTransport.Response response)
+            throws IOException {
+        String eTag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+
+        if (response.getStatus() == 304 && cached != null) {
+            try {
+                pageCache_.revalidated(url, cached, eTag, lastModified);
+            } catch (IOException e) {
+                logger.warn("Page cache not updated", "url", url, "error", e.getMessage());
+            }
+            return parse(cached.getBody(), url);
+        }
+        if (stats_ != null)
+            stats_.addBytes(response.getBody().length());
+
+        if (response.getStatus() < 200 || response.getStatus() >= 300)
+            throw new HttpStatusException("HTTP error fetching URL", response.getStatus(), url);
+
+        // classified before parsing, and never cached
+        PageClassifier.Verdict verdict = PageClassifier.classify(response.getBody());
+        if (verdict != PageClassifier.Verdict.OK) {
+            if (stats_ != null)
+                stats_.addBlockedPage();
+            throw new BlockedPageException(url, verdict);
+        }
+
+        // the cache is optional, failing to store a page does not fail its fetch
+        if (pageCache_ != null) {
+            try {
+                pageCache_.store(url, response.getBody(), eTag, lastModified);
+            } catch (IOException e) {
+                logger.warn("Page not cached", "url", url, "error", e.getMessage());
+            }
+        }
+
+        return parse(response.getBody(), response.getUrl());
+    }
+
+    // build the DOM of a page
+    private static Document parse(String body, String url) {
+        CrawlEvents.ParseEvent event = new CrawlEvents.ParseEvent();
+        event.begin();
+
+        Document page = Jsoup.parse(body, url);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.phase = "dom";
+            event.bytes = body.length();
+            event.commit();
+        }
+        return page;
+    }
+
+    // fetch event of an attempt, a cache hit if there is neither response nor failure
+    private static void commit(CrawlEvents.FetchEvent event, String url, int attempt,
+                               FetchTransport.Response response, Throwable failure) {
+        event.end();
+        if (!event.shouldCommit())
+            return;
+
+        event.url = url;
+        event.attempt = attempt;
+        if (response != null) {
+            event.status = response.getStatus();
+            event.bytes = response.getBody().length();
+        }
+        if (failure != null)
+            event.outcome = retryCause(failure);
+        else if (response == null)
+            event.outcome = "cache hit";
+        else
+            event.outcome = response.getStatus() == 304 ? "not modified" : "ok";
+        event.commit();
+    }
+
+    // backoff event of a failed attempt
+    private static void commit(CrawlEvents.BackoffEvent event, String url, int attempt, Throwable cause) {
+        event.end();
+        if (!event.shouldCommit())
+            return;
 
-        return null;
+        event.url = url;
+        event.attempt = attempt;
+        event.cause = retryCause(cause);
+        event.commit();
     }
 
 }
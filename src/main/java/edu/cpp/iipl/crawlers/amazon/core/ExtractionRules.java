@@ -0,0 +1,114 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Collector;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+
+import java.util.regex.Pattern;
+
+/**
+ * Patterns and selectors used by the parsers, compiled once.
+ * All of them are immutable and shared by every parsing thread.
+ */
+final class ExtractionRules {
+
+    /* product page */
+
+    // b:containsOwn(Item model number:)
+    static final Evaluator MODEL_NUMBER = and(
+            new Evaluator.Tag("b"),
+            new Evaluator.ContainsOwnText("Item model number:"));
+
+    static final Pattern NUM_OF_REVIEWS = Pattern.compile("([,\\d]+) customer review");
+
+    // marker of the script holding image urls, checked before running the patterns
+    static final String COLOR_IMAGES = "'colorImages':";
+
+    // note that image url might be "null"
+    static final Pattern IMG_HI_RES = Pattern.compile("'colorImages':.+?'initial':.+?\"hiRes\".+?(null|\"http.+?\")");
+    static final Pattern IMG_LARGE = Pattern.compile("'colorImages':.+?'initial':.+?\"large\".+?(null|\"http.+?\")");
+
+    /* review page */
+
+    // div.a-section.review
+    static final Evaluator REVIEW = and(
+            new Evaluator.Tag("div"),
+            new Evaluator.Class("a-section"),
+            new Evaluator.Class("review"));
+
+    // span.a-icon-alt
+    static final Evaluator RATE = and(new Evaluator.Tag("span"), new Evaluator.Class("a-icon-alt"));
+
+    // a.review-title
+    static final Evaluator TITLE = and(new Evaluator.Tag("a"), new Evaluator.Class("review-title"));
+
+    // span.review-date
+    static final Evaluator DATE = and(new Evaluator.Tag("span"), new Evaluator.Class("review-date"));
+
+    // span.review-votes
+    static final Evaluator HELP_RATIO = and(new Evaluator.Tag("span"), new Evaluator.Class("review-votes"));
+
+    // span.review-text
+    static final Evaluator TEXT = and(new Evaluator.Tag("span"), new Evaluator.Class("review-text"));
+
+    static final Pattern RATE_PTTN = Pattern.compile("([\\d]).0 out of 5 stars");
+
+    static final Pattern DATE_PTTN = Pattern.compile("on (.+)");
+
+    static final Pattern HELP_RATIO_PTTN = Pattern.compile(
+            "([\\d]+) of ([\\d]+) people found the following review helpful");
+
+    private ExtractionRules() {}
+
+    /**
+     * All the elements matching the evaluator, same as Element.select()
+     * @param evaluator         Compiled selector
+     * @param root              Root element of the search
+     * @return                  Matching elements
+     */
+    static Elements selectAll(Evaluator evaluator, Element root) {
+        return Collector.collect(evaluator, root);
+    }
+
+    /**
+     * First element matching the evaluator in document order, same as
+     * Element.select().first() but stops at the first match
+     * @param evaluator         Compiled selector
+     * @param root              Root element of the search
+     * @return                  First matching element, or null
+     */
+    static Element selectFirst(Evaluator evaluator, Element root) {
+        return selectFirst(evaluator, root, root);
+    }
+
+    private static Element selectFirst(Evaluator evaluator, Element root, Element element) {
+        if (evaluator.matches(root, element))
+            return element;
+
+        for (int i = 0; i < element.childNodeSize(); ++i) {
+            Node child = element.childNode(i);
+            if (child instanceof Element) {
+                Element found = selectFirst(evaluator, root, (Element) child);
+                if (found != null)
+                    return found;
+            }
+        }
+
+        return null;
+    }
+
+    // evaluator matching all of the given evaluators
+    private static Evaluator and(final Evaluator... evaluators) {
+        return new Evaluator() {
+            @Override
+            public boolean matches(Element root, Element element) {
+                for (Evaluator evaluator : evaluators)
+                    if (!evaluator.matches(root, element))
+                        return false;
+                return true;
+            }
+        };
+    }
+}
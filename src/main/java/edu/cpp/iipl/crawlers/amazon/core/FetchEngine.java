@@ -0,0 +1,21 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+/**
+ * Long-lived pool of fetch workers shared by all the products of a run.
+ */
+public class FetchEngine extends Stage {
+
+    // default number of worker threads
+    public static final int DEFAULT_THREADS = 8;
+
+    // default number of tasks waiting for a worker
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    public FetchEngine() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    public FetchEngine(int numOfThreads, int queueSize) {
+        super("fetch", numOfThreads, queueSize);
+    }
+}
@@ -0,0 +1,281 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-host limits of the page fetches, shared by all the crawlers of a run.
+ *
+ * Each host has a token bucket capping the request rate, and a limit of
+ * requests in flight adjusted by additive increase / multiplicative
+ * decrease: the limit grows by one for every "limit" healthy responses,
+ * and is halved on an overloaded one (503, 429, timeout...), at most once
+ * per second so that a burst of failures counts as one congestion event.
+ * Slots are taken either blocking, or asynchronously without holding a
+ * thread while the host is saturated, both served in order of arrival.
+ * Thread-safe.
+ */
+public class FetchLimiter {
+
+    // factor applied to the concurrency limit on overload
+    private static final double DECREASE = 0.5;
+
+    // minimum time between two decreases
+    private static final long DECREASE_INTERVAL_MILLIS = 1000;
+
+    // requests per second per host, 0 for no rate limit
+    private final double ratePerSecond_;
+
+    // maximum requests in flight per host, 0 for no concurrency limit
+    private final int maxConcurrency_;
+
+    private final Map<String, Host> hosts_ = new ConcurrentHashMap<>();
+
+    /**
+     * @param ratePerSecond     Requests per second per host, 0 for no rate limit
+     * @param maxConcurrency    Maximum requests in flight per host, 0 for no concurrency limit
+     */
+    public FetchLimiter(double ratePerSecond, int maxConcurrency) {
+        this.ratePerSecond_ = ratePerSecond;
+        this.maxConcurrency_ = maxConcurrency;
+    }
+
+    /**
+     * Limits of the host of a page
+     * @param url               URL of the page
+     * @return                  Limits of the host
+     */
+    public Host get(String url) {
+        String host = URI.create(url).getAuthority();
+        if (host == null)
+            host = "";
+
+        Host limits = hosts_.get(host);
+        if (limits == null) {
+            hosts_.putIfAbsent(host, new Host(host, ratePerSecond_, maxConcurrency_));
+            limits = hosts_.get(host);
+        }
+        return limits;
+    }
+
+    public Map<String, Host> getHosts() {
+        return hosts_;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Host host : hosts_.values()) {
+            if (sb.length() > 0)
+                sb.append(" | ");
+            sb.append(host);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Limits of one host
+     */
+    public static class Host {
+        private final String name_;
+
+        private final double ratePerSecond_;
+        private final int maxConcurrency_;
+
+        // token bucket
+        private final double burst_;
+        private double tokens_;
+        private long lastRefill_ = System.nanoTime();
+
+        // concurrency
+        private double limit_;
+        private int inFlight_ = 0;
+        private long lastDecrease_ = 0;
+
+        // observed request rate, over the last full second
+        private long windowStart_ = System.currentTimeMillis();
+        private int windowRequests_ = 0;
+        private double observedRate_ = 0;
+
+        private long overloads_ = 0;
+
+        // asynchronous requests waiting for a slot or a token, in order
+        private final Deque<CompletableFuture<Void>> waiters_ = new ArrayDeque<>();
+
+        // a timer is set to hand out the next token to the waiters
+        private boolean drainScheduled_ = false;
+
+        Host(String name, double ratePerSecond, int maxConcurrency) {
+            this.name_ = name;
+            this.ratePerSecond_ = ratePerSecond;
+            this.maxConcurrency_ = maxConcurrency;
+            this.burst_ = Math.max(1, ratePerSecond);
+            this.tokens_ = burst_;
+            this.limit_ = Math.max(1, maxConcurrency / 2);
+        }
+
+        /**
+         * Wait for a slot and a token before sending a request. The calling thread
+         * queues up along with the asynchronous requests, in the same order
+         * @throws InterruptedException
+         */
+        public void acquire() throws InterruptedException {
+            CompletableFuture<Void> slot = acquireAsync();
+            try {
+                slot.get();
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    // still queued, or handed a slot meanwhile which is given back
+                    if (!waiters_.remove(slot))
+                        --inFlight_;
+                }
+                drain();
+                throw e;
+            } catch (ExecutionException e) {
+                // never completed exceptionally
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        /**
+         * Take a slot and a token without blocking the calling thread
+         * @return                  Future completed once they are taken, by the thread
+         *                          releasing a slot or by a timer
+         */
+        public CompletableFuture<Void> acquireAsync() {
+            CompletableFuture<Void> slot = new CompletableFuture<>();
+            synchronized (this) {
+                if (waiters_.isEmpty() && tryAcquire() == 0)
+                    return CompletableFuture.completedFuture(null);
+                waiters_.addLast(slot);
+            }
+            drain();
+            return slot;
+        }
+
+        /**
+         * Release the slot once the response is obtained, adjusting the limit
+         * @param overloaded        Whether the host reported being overloaded
+         */
+        public synchronized void release(boolean overloaded) {
+            --inFlight_;
+
+            if (maxConcurrency_ > 0) {
+                if (overloaded) {
+                    ++overloads_;
+                    long now = System.currentTimeMillis();
+                    if (now - lastDecrease_ >= DECREASE_INTERVAL_MILLIS) {
+                        limit_ = Math.max(1, limit_ * DECREASE);
+                        lastDecrease_ = now;
+                    }
+                } else {
+                    limit_ = Math.min(maxConcurrency_, limit_ + 1 / limit_);
+                }
+            } else if (overloaded) {
+                ++overloads_;
+            }
+
+            drain();
+        }
+
+        public String getName() {
+            return name_;
+        }
+
+        // current limit of requests in flight, 0 for no limit
+        public synchronized int getLimit() {
+            return maxConcurrency_ > 0 ? (int) limit_ : 0;
+        }
+
+        public synchronized int getInFlight() {
+            return inFlight_;
+        }
+
+        // requests per second observed over the last second
+        public synchronized double getRate() {
+            countRequests(0);
+            return observedRate_;
+        }
+
+        public synchronized long getOverloads() {
+            return overloads_;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s %.1f req/s, %d/%s in flight, %d overloads", name_, getRate(),
+                    inFlight_, maxConcurrency_ > 0 ? String.valueOf((int) limit_) : "-", overloads_);
+        }
+
+        // take a slot and a token if available, otherwise the milliseconds until the
+        // next token, or -1 until a slot is released
+        private long tryAcquire() {
+            if (maxConcurrency_ > 0 && inFlight_ >= (int) limit_)
+                return -1;
+
+            if (ratePerSecond_ > 0) {
+                refill();
+                if (tokens_ < 1)
+                    return Math.max(1, (long) Math.ceil((1 - tokens_) / ratePerSecond_ * 1000));
+                tokens_ -= 1;
+            }
+
+            ++inFlight_;
+            countRequests(1);
+            return 0;
+        }
+
+        // hand the slots available over to the waiters, completed outside of the lock
+        // since they go on sending their request
+        private void drain() {
+            List<CompletableFuture<Void>> ready = new ArrayList<>();
+            synchronized (this) {
+                while (!waiters_.isEmpty()) {
+                    long wait = tryAcquire();
+                    if (wait == 0) {
+                        ready.add(waiters_.pollFirst());
+                    } else {
+                        if (wait > 0 && !drainScheduled_) {
+                            drainScheduled_ = true;
+                            CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS).execute(() -> {
+                                synchronized (this) {
+                                    drainScheduled_ = false;
+                                }
+                                drain();
+                            });
+                        }
+                        break;
+                    }
+                }
+            }
+
+            for (CompletableFuture<Void> slot : ready)
+                slot.complete(null);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens_ = Math.min(burst_, tokens_ + (now - lastRefill_) / 1e9 * ratePerSecond_);
+            lastRefill_ = now;
+        }
+
+        private void countRequests(int n) {
+            long now = System.currentTimeMillis();
+            if (now - windowStart_ >= 1000) {
+                // an idle second in between means no request
+                observedRate_ = now - windowStart_ < 2000 ? windowRequests_ * 1000.0 / (now - windowStart_) : 0;
+                windowStart_ = now;
+                windowRequests_ = 0;
+            }
+            windowRequests_ += n;
+        }
+    }
+}
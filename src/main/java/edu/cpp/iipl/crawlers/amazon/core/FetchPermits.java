@@ -0,0 +1,79 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Permits of the page fetches in flight, shared by all the crawlers of a run.
+ * A Semaphore that can also be acquired asynchronously: the fetch is then
+ * started by the thread releasing a permit, and no thread waits meanwhile.
+ * Threads blocked in acquire() are served first, so that neither kind of
+ * caller starves the other. Thread-safe.
+ */
+public class FetchPermits extends Semaphore {
+
+    private static final long serialVersionUID = 1L;
+
+    // asynchronous fetches waiting for a permit, in order
+    private final transient Deque<CompletableFuture<Void>> waiters_ = new ArrayDeque<>();
+
+    public FetchPermits(int permits) {
+        super(permits, true);
+    }
+
+    /**
+     * Take a permit without blocking the calling thread
+     * @return                  Future completed once the permit is taken
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized (waiters_) {
+            if (waiters_.isEmpty() && tryAcquireFairly())
+                return CompletableFuture.completedFuture(null);
+            waiters_.addLast(permit);
+        }
+        drain();
+        return permit;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        drain();
+    }
+
+    // asynchronous fetches waiting for a permit
+    public int getNumOfWaiters() {
+        synchronized (waiters_) {
+            return waiters_.size();
+        }
+    }
+
+    // hand the permits available over to the waiters, completed outside of the lock
+    // since they go on sending their request
+    private void drain() {
+        List<CompletableFuture<Void>> ready = new ArrayList<>();
+        synchronized (waiters_) {
+            while (!waiters_.isEmpty() && tryAcquireFairly())
+                ready.add(waiters_.pollFirst());
+        }
+
+        for (CompletableFuture<Void> permit : ready)
+            permit.complete(null);
+    }
+
+    // a permit unless threads are queued for one
+    private boolean tryAcquireFairly() {
+        try {
+            return tryAcquire(0, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return tryAcquire();
+        }
+    }
+}
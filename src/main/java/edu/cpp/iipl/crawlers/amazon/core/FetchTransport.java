@@ -0,0 +1,71 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport of the page fetches behind Crawler.getPage, shared by all
+ * the crawlers of a run. Implementations must be thread-safe.
+ */
+public interface FetchTransport {
+
+    /**
+     * Response to a page request, with a decoded body
+     */
+    final class Response {
+        private final int status_;
+        private final String url_;
+        private final String body_;
+        private final Map<String, String> headers_;
+
+        public Response(int status, String url, String body, Map<String, String> headers) {
+            this.status_ = status;
+            this.url_ = url;
+            this.body_ = body;
+
+            Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            map.putAll(headers);
+            this.headers_ = Collections.unmodifiableMap(map);
+        }
+
+        public int getStatus() {
+            return status_;
+        }
+
+        // url after redirects
+        public String getUrl() {
+            return url_;
+        }
+
+        public String getBody() {
+            return body_;
+        }
+
+        // value of a header, case-insensitive, null if missing
+        public String getHeader(String name) {
+            return headers_.get(name);
+        }
+    }
+
+    /**
+     * Fetch a page, blocking the calling thread.
+     * HTTP errors are responses, not exceptions.
+     * @param url               URL of the page
+     * @param headers           Extra request headers, e.g. for conditional requests
+     * @return                  Response
+     * @throws IOException      When no response is obtained
+     * @throws InterruptedException
+     */
+    Response fetch(String url, Map<String, String> headers) throws IOException, InterruptedException;
+
+    /**
+     * Fetch a page without blocking the calling thread
+     * @param url               URL of the page
+     * @param headers           Extra request headers, e.g. for conditional requests
+     * @return                  Future of the response, completed exceptionally when no response is obtained
+     */
+    CompletableFuture<Response> fetchAsync(String url, Map<String, String> headers);
+}
@@ -0,0 +1,161 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Fetch transport over one java.net.http.HttpClient: connections are
+ * pooled and kept alive across pages, HTTP/2 is negotiated when the site
+ * supports it (several pages multiplexed on one connection), and bodies
+ * are transferred gzip or deflate compressed.
+ */
+public class HttpClientTransport implements FetchTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    // number of threads driving the client
+    private static final int THREADS = 2;
+
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final Pattern CHARSET = Pattern.compile("charset=\"?([^;\"\\s]+)", Pattern.CASE_INSENSITIVE);
+
+    // transport used by crawlers not given one
+    private static HttpClientTransport default_ = null;
+
+    private final HttpClient client_;
+
+    private final Duration readTimeout_;
+
+    // bytes received on the wire, and once decompressed
+    private final AtomicLong wireBytes_ = new AtomicLong();
+    private final AtomicLong bodyBytes_ = new AtomicLong();
+
+    public HttpClientTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param connectTimeoutMillis  Timeout of establishing a connection
+     * @param readTimeoutMillis     Timeout of each request, until the response headers are received
+     */
+    public HttpClientTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.readTimeout_ = Duration.ofMillis(readTimeoutMillis);
+        this.client_ = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .executor(Executors.newFixedThreadPool(THREADS, r -> {
+                    Thread t = new Thread(r, "http-transport");
+                    t.setDaemon(true);
+                    return t;
+                }))
+                .build();
+    }
+
+    public static synchronized HttpClientTransport getDefault() {
+        if (default_ == null)
+            default_ = new HttpClientTransport();
+        return default_;
+    }
+
+    @Override
+    public Response fetch(String url, Map<String, String> headers) throws IOException, InterruptedException {
+        return decode(client_.send(request(url, headers), HttpResponse.BodyHandlers.ofByteArray()));
+    }
+
+    @Override
+    public CompletableFuture<Response> fetchAsync(String url, Map<String, String> headers) {
+        return client_.sendAsync(request(url, headers), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> {
+                    try {
+                        return decode(response);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    public long getWireBytes() {
+        return wireBytes_.get();
+    }
+
+    public long getBodyBytes() {
+        return bodyBytes_.get();
+    }
+
+    private HttpRequest request(String url, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(readTimeout_)
+                .header("Accept-Encoding", ACCEPT_ENCODING)
+                .GET();
+        for (Map.Entry<String, String> header : headers.entrySet())
+            builder.header(header.getKey(), header.getValue());
+        return builder.build();
+    }
+
+    // decompress and decode the body
+    private Response decode(HttpResponse<byte[]> response) throws IOException {
+        HttpHeaders headers = response.headers();
+        byte[] bytes = response.body();
+        wireBytes_.addAndGet(bytes.length);
+
+        String encoding = headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+            bytes = readAll(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+        else if (encoding.equals("deflate"))
+            bytes = readAll(new InflaterInputStream(new ByteArrayInputStream(bytes)));
+        bodyBytes_.addAndGet(bytes.length);
+
+        Charset charset = StandardCharsets.UTF_8;
+        Matcher matcher = CHARSET.matcher(headers.firstValue("Content-Type").orElse(""));
+        if (matcher.find()) {
+            try {
+                charset = Charset.forName(matcher.group(1));
+            } catch (IllegalArgumentException e) {
+                // unknown charset, keep UTF-8
+            }
+        }
+
+        Map<String, String> map = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : headers.map().entrySet())
+            if (!header.getValue().isEmpty())
+                map.put(header.getKey(), header.getValue().get(0));
+
+        return new Response(response.statusCode(), response.uri().toString(), new String(bytes, charset), map);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) > 0)
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.io.IOException;
+
+/**
+ * The product page or review pages of a product could not be obtained
+ * after all the retries. The reviews of the other pages are already pushed
+ * to the sink, the product must not be recorded as done so that a rerun
+ * fetches the rest.
+ */
+public class IncompleteCrawlException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int failedPages_;
+
+    private final int numOfReviews_;
+
+    // the product page failed, nothing was crawled
+    public IncompleteCrawlException(String asin) {
+        super("Product page of " + asin + " failed");
+        this.failedPages_ = 1;
+        this.numOfReviews_ = 0;
+    }
+
+    public IncompleteCrawlException(String asin, int failedPages, int numOfReviews) {
+        super(failedPages + " review pages of " + asin + " failed, " + numOfReviews + " reviews obtained");
+        this.failedPages_ = failedPages;
+        this.numOfReviews_ = numOfReviews;
+    }
+
+    public int getFailedPages() {
+        return failedPages_;
+    }
+
+    // reviews pushed to the sink anyway
+    public int getNumOfReviews() {
+        return numOfReviews_;
+    }
+}
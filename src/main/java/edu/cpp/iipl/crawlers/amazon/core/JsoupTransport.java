@@ -0,0 +1,56 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Fetch transport opening a Jsoup connection for each page, as the
+ * crawlers originally did. Asynchronous fetches block a thread of the
+ * common pool.
+ */
+public class JsoupTransport implements FetchTransport {
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private final int timeoutMillis_;
+
+    public JsoupTransport() {
+        this(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis     Timeout of connecting and of reading the response
+     */
+    public JsoupTransport(int timeoutMillis) {
+        this.timeoutMillis_ = timeoutMillis;
+    }
+
+    @Override
+    public Response fetch(String url, Map<String, String> headers) throws IOException {
+        Connection connection = Jsoup.connect(url)
+                .timeout(timeoutMillis_)
+                .ignoreHttpErrors(true);
+        for (Map.Entry<String, String> header : headers.entrySet())
+            connection.header(header.getKey(), header.getValue());
+
+        Connection.Response response = connection.execute();
+
+        return new Response(response.statusCode(), response.url().toString(), response.body(), response.headers());
+    }
+
+    @Override
+    public CompletableFuture<Response> fetchAsync(final String url, final Map<String, String> headers) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetch(url, headers);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+}
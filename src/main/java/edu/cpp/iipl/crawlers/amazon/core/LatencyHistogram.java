@@ -0,0 +1,119 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds.
+ * Buckets are log-linear (16 per power of two), so percentiles are
+ * accurate to about 6% over the whole range.
+ */
+public class LatencyHistogram {
+
+    // sub-buckets per power of two
+    private static final int SUB_BUCKETS = 16;
+
+    // values below are counted exactly
+    private static final int LINEAR_LIMIT = SUB_BUCKETS;
+
+    private static final int NUM_OF_BUCKETS = LINEAR_LIMIT + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_OF_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency
+     * @param micros            Latency in microseconds
+     */
+    public void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+
+        buckets.incrementAndGet(indexOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros));
+    }
+
+    /**
+     * Record the time elapsed since the given start
+     * @param startNanos        Start time from System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Latency at the given percentile
+     * @param percentile        Between 0 and 100, e.g. 99
+     * @return                  Latency in microseconds, 0 if nothing recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(percentile / 100.0 * n);
+        if (rank < 1)
+            rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < NUM_OF_BUCKETS; ++i) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Short description of the distribution
+     * @return                  e.g. "p50 12.3ms p90 40.1ms p99 80.0ms max 120.5ms"
+     */
+    public String summary() {
+        return String.format("p50 %.1fms p90 %.1fms p99 %.1fms max %.1fms",
+                getPercentile(50) / 1000.0, getPercentile(90) / 1000.0,
+                getPercentile(99) / 1000.0, getMax() / 1000.0);
+    }
+
+    // bucket of a value
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+
+        int exp = 63 - Long.numberOfLeadingZeros(value);     // >= 4
+        int sub = (int) (value >> (exp - 4)) - SUB_BUCKETS;  // 0 .. 15
+        return LINEAR_LIMIT + (exp - 4) * SUB_BUCKETS + sub;
+    }
+
+    // largest value of a bucket
+    private static long upperBoundOf(int index) {
+        if (index < LINEAR_LIMIT)
+            return index;
+
+        int exp = (index - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+        int sub = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub) << (exp - 4)) + (1L << (exp - 4)) - 1;
+    }
+}
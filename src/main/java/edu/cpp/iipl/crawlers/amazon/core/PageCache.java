@@ -0,0 +1,313 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persistent cache of fetched pages keyed by URL, shared by the crawlers
+ * of a run and by later runs using the same directory.
+ *
+ * Each page is a gzipped file holding the body with its fetch time and
+ * validators (ETag, Last-Modified). Pages younger than the time to live
+ * are served without any network call, older ones are revalidated with
+ * a conditional request. Least recently used pages are evicted once the
+ * files exceed the disk budget.
+ * Thread-safe.
+ */
+public class PageCache {
+
+    // default time to live of a page
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // default disk budget
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private static final String SUFFIX = ".page";
+
+    private static final int VERSION = 1;
+
+    private final File dir_;
+
+    private final long maxBytes_;
+
+    private final long ttlMillis_;
+
+    // key -> file size, in the order of access
+    private final LinkedHashMap<String, Long> entries_ = new LinkedHashMap<>(16, 0.75f, true);
+
+    // total size of the files
+    private long totalBytes_ = 0;
+
+    private final AtomicLong hits_ = new AtomicLong();
+    private final AtomicLong misses_ = new AtomicLong();
+    private final AtomicLong revalidations_ = new AtomicLong();
+    private final AtomicLong evictions_ = new AtomicLong();
+
+    // body bytes not downloaded thanks to hits and revalidations
+    private final AtomicLong bytesSaved_ = new AtomicLong();
+
+    /**
+     * A cached page with its validators
+     */
+    public static class Entry {
+        private final String body_;
+        private final long fetchTime_;
+        private final String eTag_;
+        private final String lastModified_;
+        private final boolean fresh_;
+
+        Entry(String body, long fetchTime, String eTag, String lastModified, boolean fresh) {
+            this.body_ = body;
+            this.fetchTime_ = fetchTime;
+            this.eTag_ = eTag;
+            this.lastModified_ = lastModified;
+            this.fresh_ = fresh;
+        }
+
+        public String getBody() {
+            return body_;
+        }
+
+        public long getFetchTime() {
+            return fetchTime_;
+        }
+
+        public String getETag() {
+            return eTag_;
+        }
+
+        public String getLastModified() {
+            return lastModified_;
+        }
+
+        public boolean isFresh() {
+            return fresh_;
+        }
+    }
+
+    public PageCache(File dir) throws IOException {
+        this(dir, DEFAULT_MAX_BYTES, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Open the cache, indexing the pages stored by previous runs
+     * @param dir               Directory of the cached pages
+     * @param maxBytes          Disk budget
+     * @param ttlMillis         Age under which a page is served without revalidation
+     * @throws IOException
+     */
+    public PageCache(File dir, long maxBytes, long ttlMillis) throws IOException {
+        this.dir_ = dir;
+        this.maxBytes_ = maxBytes;
+        this.ttlMillis_ = ttlMillis;
+
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Unable to create page cache " + dir);
+
+        // least recently used first, the file time is updated on each hit
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                String name = file.getName();
+                entries_.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                totalBytes_ += file.length();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Look up a page
+     * @param url               URL of the page
+     * @return                  Cached page, null if not cached
+     */
+    public Entry lookup(String url) {
+        String key = key(url);
+
+        synchronized (this) {
+            if (entries_.get(key) == null) {
+                misses_.incrementAndGet();
+                return null;
+            }
+        }
+
+        Entry entry;
+        File file = file(key);
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != VERSION || !url.equals(in.readUTF()))
+                throw new IOException("Stale page cache entry " + file);
+
+            long fetchTime = in.readLong();
+            String eTag = readOptional(in);
+            String lastModified = readOptional(in);
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+
+            boolean fresh = System.currentTimeMillis() - fetchTime < ttlMillis_;
+            entry = new Entry(new String(body, StandardCharsets.UTF_8), fetchTime, eTag, lastModified, fresh);
+        } catch (IOException e) {
+            // evicted meanwhile or corrupted, fetch it again
+            remove(key);
+            misses_.incrementAndGet();
+            return null;
+        }
+
+        if (entry.isFresh()) {
+            hits_.incrementAndGet();
+            bytesSaved_.addAndGet(entry.getBody().length());
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        return entry;
+    }
+
+    /**
+     * Store a page just fetched
+     * @param url               URL of the page
+     * @param body              Body of the page
+     * @param eTag              ETag of the response, can be null
+     * @param lastModified      Last-Modified of the response, can be null
+     * @throws IOException
+     */
+    public void store(String url, String body, String eTag, String lastModified) throws IOException {
+        String key = key(url);
+        File file = file(key);
+
+        // write aside, then move in place so that readers never see a partial file
+        File tmp = File.createTempFile(key, ".tmp", dir_);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp))))) {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(VERSION);
+                out.writeUTF(url);
+                out.writeLong(System.currentTimeMillis());
+                writeOptional(out, eTag);
+                writeOptional(out, lastModified);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+
+        synchronized (this) {
+            Long old = entries_.put(key, file.length());
+            totalBytes_ += file.length() - (old == null ? 0 : old);
+            evict();
+        }
+    }
+
+    /**
+     * Record that a stale page is still valid, restarting its time to live
+     * @param url               URL of the page
+     * @param entry             Cached page
+     * @param eTag              ETag of the response, the cached one if null
+     * @param lastModified      Last-Modified of the response, the cached one if null
+     * @throws IOException
+     */
+    public void revalidated(String url, Entry entry, String eTag, String lastModified) throws IOException {
+        revalidations_.incrementAndGet();
+        bytesSaved_.addAndGet(entry.getBody().length());
+
+        store(url, entry.getBody(),
+                eTag != null ? eTag : entry.getETag(),
+                lastModified != null ? lastModified : entry.getLastModified());
+    }
+
+    public long getHits() {
+        return hits_.get();
+    }
+
+    public long getMisses() {
+        return misses_.get();
+    }
+
+    public long getRevalidations() {
+        return revalidations_.get();
+    }
+
+    public long getEvictions() {
+        return evictions_.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved_.get();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes_;
+    }
+
+    public synchronized int getNumOfPages() {
+        return entries_.size();
+    }
+
+    /**
+     * One line summary of the cache counters
+     * @return                  Summary string
+     */
+    public String summary() {
+        return String.format("%d hits, %d misses, %d revalidated, %d evicted, %.1f MB saved, %d pages (%.1f MB) on disk",
+                getHits(), getMisses(), getRevalidations(), getEvictions(),
+                getBytesSaved() / (1024.0 * 1024), getNumOfPages(), getTotalBytes() / (1024.0 * 1024));
+    }
+
+    // drop least recently used pages beyond the budget, called with the lock held
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries_.entrySet().iterator();
+        while (totalBytes_ > maxBytes_ && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes_ -= eldest.getValue();
+            file(eldest.getKey()).delete();
+            evictions_.incrementAndGet();
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long size = entries_.remove(key);
+        if (size != null)
+            totalBytes_ -= size;
+        file(key).delete();
+    }
+
+    private File file(String key) {
+        return new File(dir_, key + SUFFIX);
+    }
+
+    // file name of a url
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(2 * digest.length);
+            for (byte b : digest)
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
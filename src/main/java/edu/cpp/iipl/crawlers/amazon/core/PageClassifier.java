@@ -0,0 +1,102 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+/**
+ * Tells apart the pages worth parsing from the ones Amazon serves instead
+ * with a success status: robot checks, error pages and truncated HTML.
+ * Works on the raw body, so that junk is never parsed.
+ */
+public final class PageClassifier {
+
+    public enum Verdict {
+        OK,             // page to be parsed
+        ROBOT_CHECK,    // captcha interstitial, the host wants us to slow down
+        SOFT_ERROR,     // error page served with a success status
+        TRUNCATED       // body cut before the end of the document
+    }
+
+    // titles of the block pages, looked for in the <title> element only: the body of a real page
+    // carries reviews written by users, which may quote anything
+    private static final String[] ROBOT_CHECK_TITLES = {
+            "Robot Check"
+    };
+
+    private static final String[] SOFT_ERROR_TITLES = {
+            "Sorry! Something went wrong",
+            "Page Not Found",
+            "Service Unavailable Error"
+    };
+
+    // action of the captcha form, served by some robot checks under a regular title
+    private static final String CAPTCHA_ACTION = "/errors/validateCaptcha";
+
+    // block pages are below this length, the captcha form is only looked for in those
+    private static final int BLOCK_PAGE_MAX_LENGTH = 32 * 1024;
+
+    // the end tag is looked for in the tail of the body only
+    private static final int TAIL_LENGTH = 1024;
+
+    private PageClassifier() {}
+
+    /**
+     * Classify a page from its body
+     * @param body              Body of the response
+     * @return                  Verdict
+     */
+    public static Verdict classify(String body) {
+        if (body == null || body.isEmpty())
+            return Verdict.TRUNCATED;
+
+        // markup is never written by users, their text is escaped
+        String title = title(body);
+        if (title != null) {
+            for (String marker : ROBOT_CHECK_TITLES)
+                if (title.contains(marker))
+                    return Verdict.ROBOT_CHECK;
+
+            for (String marker : SOFT_ERROR_TITLES)
+                if (title.contains(marker))
+                    return Verdict.SOFT_ERROR;
+        }
+
+        if (body.length() < BLOCK_PAGE_MAX_LENGTH && hasCaptchaForm(body))
+            return Verdict.ROBOT_CHECK;
+
+        if (!hasEndTag(body))
+            return Verdict.TRUNCATED;
+
+        return Verdict.OK;
+    }
+
+    // text of the first <title> element, null if none
+    private static String title(String body) {
+        int start = body.indexOf("<title");
+        if (start < 0)
+            return null;
+        start = body.indexOf('>', start);
+        if (start < 0)
+            return null;
+        int end = body.indexOf("</title", start);
+        return end < 0 ? null : body.substring(start + 1, end);
+    }
+
+    // whether a <form> tag posts to the captcha validation
+    private static boolean hasCaptchaForm(String body) {
+        for (int i = body.indexOf("<form"); i >= 0; i = body.indexOf("<form", i + 5)) {
+            int end = body.indexOf('>', i);
+            if (end < 0)
+                return false;
+            if (body.substring(i, end).contains(CAPTCHA_ACTION))
+                return true;
+        }
+        return false;
+    }
+
+    // whether </html> is within the tail, ignoring case, scanning backwards
+    private static boolean hasEndTag(String body) {
+        int from = Math.max(0, body.length() - TAIL_LENGTH);
+        for (int i = body.length() - 6; i >= from; --i)
+            if (body.regionMatches(true, i, "</html", 0, 6))
+                return true;
+        return false;
+    }
+}
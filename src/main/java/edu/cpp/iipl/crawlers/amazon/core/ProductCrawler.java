@@ -9,7 +9,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Created by xing on 12/22/15.
@@ -18,13 +17,16 @@ public class ProductCrawler extends Crawler {
 
     // get the url pointing to the product page
     private String getPageUrl(String asin) {
-        return "http://www.amazon.com/dp/" + asin;
+        return getBaseUrl_() + "/dp/" + asin;
     }
 
-    // parse the product page
-    private Product parsePage(Document page) {
+    // parse the product page, package-private for the benchmarks
+    Product parsePage(Document page) {
         if (page == null) return null;
 
+        long start = System.nanoTime();
+        CrawlEvents.ParseEvent event = new CrawlEvents.ParseEvent();
+        event.begin();
         Product product = new Product();
 
         // name
@@ -34,7 +36,7 @@ public class ProductCrawler extends Crawler {
 
         // model number
         // Amazon changed this part back...wtf
-        Element model = page.select("b:containsOwn(Item model number:)").first();
+        Element model = ExtractionRules.selectFirst(ExtractionRules.MODEL_NUMBER, page);
         if (model != null && model.parent() != null) {
             String modelNum = model.parent().ownText().trim();
             modelNum = modelNum.toUpperCase();
@@ -46,11 +48,10 @@ public class ProductCrawler extends Crawler {
         product.setNumOfReviewsOnPage(0);    // init as 0
         Element numOfReviews = page.getElementById("acrCustomerReviewText");
         if (numOfReviews != null) {
-            Pattern pattern = Pattern.compile("([,\\d]+) customer review");
-            Matcher matcher = pattern.matcher(numOfReviews.ownText().trim());
+            Matcher matcher = ExtractionRules.NUM_OF_REVIEWS.matcher(numOfReviews.ownText().trim());
 
             if (matcher.find()) {
-                String pureNumber = matcher.group(1).replaceAll(",", "");
+                String pureNumber = matcher.group(1).replace(",", "");
                 product.setNumOfReviewsOnPage(Integer.parseInt(pureNumber));
             }
         }
@@ -61,17 +62,19 @@ public class ProductCrawler extends Crawler {
         // get image urls
         Elements scripts = page.getElementsByTag("script");
         if (scripts != null) {
-            // note that image url might be "null"
-            Pattern hiResPttn = Pattern.compile("'colorImages':.+?'initial':.+?\"hiRes\".+?(null|\"http.+?\")");
-            Pattern largePttn = Pattern.compile("'colorImages':.+?'initial':.+?\"large\".+?(null|\"http.+?\")");
             for (Element script : scripts) {
-                Matcher hiResMth = hiResPttn.matcher(script.html());
+                // raw script content, without serializing the node
+                String data = script.data();
+                if (!data.contains(ExtractionRules.COLOR_IMAGES))
+                    continue;
+
+                Matcher hiResMth = ExtractionRules.IMG_HI_RES.matcher(data);
                 if (hiResMth.find() && !hiResMth.group(1).equals("null"))
-                    product.setImgUrlHiRes(hiResMth.group(1).replaceAll("\"", ""));
+                    product.setImgUrlHiRes(hiResMth.group(1).replace("\"", ""));
 
-                Matcher largeMth = largePttn.matcher(script.html());
+                Matcher largeMth = ExtractionRules.IMG_LARGE.matcher(data);
                 if (largeMth.find() && !largeMth.group(1).equals("null"))
-                    product.setImgUrlLarge(largeMth.group(1).replaceAll("\"", ""));
+                    product.setImgUrlLarge(largeMth.group(1).replace("\"", ""));
 
                 // break out once obtained
                 if (product.getImgUrlHiRes() != null || product.getImgUrlLarge() != null)
@@ -79,6 +82,15 @@ public class ProductCrawler extends Crawler {
             }
         }
 
+        if (stats_ != null)
+            stats_.getParseLatency().recordSince(start);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = page.location();
+            event.phase = "extract";
+            event.commit();
+        }
 
         return product;
     }
@@ -110,7 +122,7 @@ public class ProductCrawler extends Crawler {
 
             productMap.put(asin, product);
 
-            logger.info("Product " + asin + " obtained.");
+            logger.info("Product obtained", "asin", asin);
         }
 
         return productMap;
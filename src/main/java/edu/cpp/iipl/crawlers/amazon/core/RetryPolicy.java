@@ -0,0 +1,271 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When and how long to wait before retrying a failed page fetch, shared
+ * by all the crawlers of a run.
+ *
+ *  - Backoff is exponential with full jitter: the n-th retry waits a random
+ *    time up to base * 2^(n-1), capped, so that workers failing together
+ *    do not retry together.
+ *  - Retries are budgeted: beyond a small reserve, at most a fraction of
+ *    all the requests sent can be retries, so that a throttled host is not
+ *    hammered by every page retrying on its own.
+ *  - Each host has a circuit breaker: after a number of failures in a row
+ *    it opens and requests wait, without using up their attempts, until a
+ *    single probe is let through after a while and closes it again on
+ *    success. Crawls are thus held rather than failed while a host is down.
+ * Thread-safe.
+ */
+public class RetryPolicy {
+
+    // maximum attempts of a page
+    public static final int DEFAULT_MAX_RETRIES = 10;
+
+    public static final int DEFAULT_BASE_DELAY_MILLIS = 1000;
+
+    public static final int DEFAULT_MAX_DELAY_MILLIS = 60000;
+
+    // retries allowed per request sent
+    public static final double DEFAULT_BUDGET_RATIO = 0.2;
+
+    // retries always allowed, whatever the number of requests
+    private static final int BUDGET_RESERVE = 10;
+
+    public static final int DEFAULT_BREAKER_THRESHOLD = 20;
+
+    public static final int DEFAULT_BREAKER_OPEN_MILLIS = 30000;
+
+    // longest wait before asking again while a probe is in flight
+    private static final long HALF_OPEN_POLL_MILLIS = 1000;
+
+    private volatile int maxRetries_ = DEFAULT_MAX_RETRIES;
+    private volatile int baseDelayMillis_ = DEFAULT_BASE_DELAY_MILLIS;
+    private volatile int maxDelayMillis_ = DEFAULT_MAX_DELAY_MILLIS;
+    private volatile double budgetRatio_ = DEFAULT_BUDGET_RATIO;
+    private volatile int breakerThreshold_ = DEFAULT_BREAKER_THRESHOLD;
+    private volatile int breakerOpenMillis_ = DEFAULT_BREAKER_OPEN_MILLIS;
+
+    private final AtomicLong requests_ = new AtomicLong();
+    private final AtomicLong retries_ = new AtomicLong();
+    private final AtomicLong budgetExhausted_ = new AtomicLong();
+    private final AtomicLong held_ = new AtomicLong();
+
+    private final Map<String, CircuitBreaker> breakers_ = new ConcurrentHashMap<>();
+
+    public int getMaxRetries() {
+        return maxRetries_;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries_ = maxRetries;
+    }
+
+    public int getBaseDelayMillis() {
+        return baseDelayMillis_;
+    }
+
+    public void setBaseDelayMillis(int baseDelayMillis) {
+        this.baseDelayMillis_ = baseDelayMillis;
+    }
+
+    public int getMaxDelayMillis() {
+        return maxDelayMillis_;
+    }
+
+    public void setMaxDelayMillis(int maxDelayMillis) {
+        this.maxDelayMillis_ = maxDelayMillis;
+    }
+
+    public double getBudgetRatio() {
+        return budgetRatio_;
+    }
+
+    public void setBudgetRatio(double budgetRatio) {
+        this.budgetRatio_ = budgetRatio;
+    }
+
+    public int getBreakerThreshold() {
+        return breakerThreshold_;
+    }
+
+    public void setBreakerThreshold(int breakerThreshold) {
+        this.breakerThreshold_ = breakerThreshold;
+    }
+
+    public int getBreakerOpenMillis() {
+        return breakerOpenMillis_;
+    }
+
+    public void setBreakerOpenMillis(int breakerOpenMillis) {
+        this.breakerOpenMillis_ = breakerOpenMillis;
+    }
+
+    /**
+     * Ask for sending a request to the host of a page
+     * @param url               URL of the page
+     * @param waiting           Whether the request already waited for the circuit, so that it is counted once
+     * @return                  0 if the request can be sent, otherwise time to wait before asking again
+     */
+    public long requestDelay(String url, boolean waiting) {
+        long delay = breaker(url).requestDelay();
+        if (delay > 0) {
+            if (!waiting)
+                held_.incrementAndGet();
+            return delay;
+        }
+
+        requests_.incrementAndGet();
+        return 0;
+    }
+
+    public void onSuccess(String url) {
+        breaker(url).onSuccess();
+    }
+
+    public void onFailure(String url) {
+        breaker(url).onFailure();
+    }
+
+    /**
+     * Ask for retrying a failed request
+     * @param attempt           Number of the attempt failed, from 1
+     * @return                  Time to wait before retrying, -1 if no retry is allowed
+     */
+    public long retryDelay(int attempt) {
+        if (attempt >= maxRetries_)
+            return -1;
+
+        // within the budget, checked and taken at once so that concurrent failures cannot overshoot it
+        long retries;
+        do {
+            retries = retries_.get();
+            if (retries >= BUDGET_RESERVE + budgetRatio_ * requests_.get()) {
+                budgetExhausted_.incrementAndGet();
+                return -1;
+            }
+        } while (!retries_.compareAndSet(retries, retries + 1));
+
+        // full jitter
+        long cap = Math.min(maxDelayMillis_, (long) baseDelayMillis_ << Math.min(attempt - 1, 30));
+        return cap > 0 ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+    }
+
+    public long getRequests() {
+        return requests_.get();
+    }
+
+    public long getRetries() {
+        return retries_.get();
+    }
+
+    // retries denied since the budget was spent
+    public long getBudgetExhausted() {
+        return budgetExhausted_.get();
+    }
+
+    // requests held by an open circuit
+    public long getHeld() {
+        return held_.get();
+    }
+
+    public Map<String, CircuitBreaker> getBreakers() {
+        return breakers_;
+    }
+
+    /**
+     * One line summary of the retries
+     * @return                  Summary string
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder(String.format(
+                "%d requests, %d retries, %d denied by the budget, %d held by an open circuit",
+                getRequests(), getRetries(), getBudgetExhausted(), getHeld()));
+        for (CircuitBreaker breaker : breakers_.values())
+            sb.append(", ").append(breaker);
+        return sb.toString();
+    }
+
+    private CircuitBreaker breaker(String url) {
+        String host = URI.create(url).getAuthority();
+        if (host == null)
+            host = "";
+
+        CircuitBreaker breaker = breakers_.get(host);
+        if (breaker == null) {
+            breakers_.putIfAbsent(host, new CircuitBreaker(host));
+            breaker = breakers_.get(host);
+        }
+        return breaker;
+    }
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Circuit breaker of one host
+     */
+    public class CircuitBreaker {
+
+        private final String host_;
+
+        private State state_ = State.CLOSED;
+        private int failuresInRow_ = 0;
+        private long openedAt_ = 0;
+        private long opened_ = 0;
+
+        CircuitBreaker(String host) {
+            this.host_ = host;
+        }
+
+        // 0 if a request can be sent, otherwise time until the next probe
+        synchronized long requestDelay() {
+            if (state_ == State.CLOSED)
+                return 0;
+
+            long now = System.currentTimeMillis();
+            long remaining = openedAt_ + breakerOpenMillis_ - now;
+            if (remaining <= 0) {
+                // let a single probe through, another one if it never reports
+                state_ = State.HALF_OPEN;
+                openedAt_ = now;
+                return 0;
+            }
+
+            // the probe in flight may close the circuit any time
+            return state_ == State.HALF_OPEN ? Math.min(remaining, HALF_OPEN_POLL_MILLIS) : remaining;
+        }
+
+        synchronized void onSuccess() {
+            failuresInRow_ = 0;
+            state_ = State.CLOSED;
+        }
+
+        synchronized void onFailure() {
+            ++failuresInRow_;
+            if (state_ == State.HALF_OPEN || (state_ == State.CLOSED && failuresInRow_ >= breakerThreshold_)) {
+                state_ = State.OPEN;
+                openedAt_ = System.currentTimeMillis();
+                ++opened_;
+            }
+        }
+
+        public synchronized State getState() {
+            return state_;
+        }
+
+        // number of times the circuit opened
+        public synchronized long getOpened() {
+            return opened_;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return host_ + " " + state_.toString().toLowerCase() + " (opened " + opened_ + " times)";
+        }
+    }
+}
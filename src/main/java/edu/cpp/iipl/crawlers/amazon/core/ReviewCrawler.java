@@ -6,42 +6,107 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Created by xing on 12/22/15.
  */
 public class ReviewCrawler extends Crawler {
 
-    // formatter for string -> date conversion
-    private DateFormat fmt_ = new SimpleDateFormat("MMMM d, yyyy", Locale.ENGLISH);
+    // Amazon has 10 reviews per page
+    public static final int REVIEWS_PER_PAGE = 10;
 
+    // number of reviews of a page not obtained after all the retries
+    static final int FAILED_PAGE = -1;
+
+    // a product is given up after so many pages failed in a row
+    private static final int MAX_FAILED_PAGES_IN_ROW = 3;
+
+    // string -> date conversion, shared by all the threads using this crawler
+    private final ReviewDateParser dateParser_ = new ReviewDateParser();
+
+    // long-lived fetch workers, created on first use if not set
+    private FetchEngine fetchEngine_ = null;
+
+    // fetch/parse/persist stages, pages are fetched by the fetch engine alone if not set
+    private CrawlPipeline pipeline_ = null;
+
+    // number of pages fetched speculatively at first
+    private int initialWindow_ = 4;
+
+    // maximum number of pages fetched speculatively
+    private int maxWindow_ = 64;
+
+    public synchronized FetchEngine getFetchEngine_() {
+        if (fetchEngine_ == null)
+            fetchEngine_ = new FetchEngine();
+        return fetchEngine_;
+    }
+
+    public synchronized void setFetchEngine_(FetchEngine fetchEngine_) {
+        this.fetchEngine_ = fetchEngine_;
+    }
+
+    public CrawlPipeline getPipeline_() {
+        return pipeline_;
+    }
+
+    public void setPipeline_(CrawlPipeline pipeline_) {
+        this.pipeline_ = pipeline_;
+    }
+
+    public int getInitialWindow_() {
+        return initialWindow_;
+    }
+
+    public void setInitialWindow_(int initialWindow_) {
+        this.initialWindow_ = initialWindow_;
+    }
+
+    public int getMaxWindow_() {
+        return maxWindow_;
+    }
+
+    public void setMaxWindow_(int maxWindow_) {
+        this.maxWindow_ = maxWindow_;
+    }
 
     // get the url pointing to a page of reviews
     private String getPageUrl(String asin, int pageId) {
-        return "http://www.amazon.com/product-reviews/"
+        return getPageUrl(asin, pageId, false);
+    }
+
+    // get the url pointing to a page of reviews, optionally sorted by most recent
+    private String getPageUrl(String asin, int pageId, boolean newestFirst) {
+        return getBaseUrl_() + "/product-reviews/"
                 + asin
                 + "/ref=cm_cr_pr_btm_link_"
                 + pageId
-                + "?ie=UTF8&pageNumber="
+                + "?ie=UTF8"
+                + (newestFirst ? "&sortBy=recent" : "")
+                + "&pageNumber="
                 + pageId;
     }
 
 
-    // parse the page of reviews
-    private Map<String, Review> parsePage(Document page) {
+    // parse the page of reviews, package-private for the benchmarks
+    Map<String, Review> parsePage(Document page) {
         if (page == null) return null;
 
+        long start = System.nanoTime();
+        CrawlEvents.ParseEvent event = new CrawlEvents.ParseEvent();
+        event.begin();
         Map<String, Review> reviews = new HashMap<>();
 
         // get reviews
-        Elements reviewElements = page.select("div.a-section.review");
+        Elements reviewElements = ExtractionRules.selectAll(ExtractionRules.REVIEW, page);
 
         // parse each review
         for (Element reviewElement : reviewElements) {
@@ -50,42 +115,38 @@ public class ReviewCrawler extends Crawler {
             // name
             review.setName(reviewElement.id());
 
-            // permalink
-            review.setPermalink("http://www.amazon.com/review/" + reviewElement.id());
+            // permalink is derived from the name
 
             // rating
-            Element rate = reviewElement.select("span.a-icon-alt").first();
+            Element rate = ExtractionRules.selectFirst(ExtractionRules.RATE, reviewElement);
             if (rate != null) {
-                Pattern pattern = Pattern.compile("([\\d]).0 out of 5 stars");
-                Matcher matcher = pattern.matcher(rate.ownText());
+                Matcher matcher = ExtractionRules.RATE_PTTN.matcher(rate.ownText());
                 if (matcher.find())
                     review.setRate(Integer.parseInt(matcher.group(1)));
             }
 
             // title
-            Element title = reviewElement.select("a.review-title").first();
+            Element title = ExtractionRules.selectFirst(ExtractionRules.TITLE, reviewElement);
             if (title != null)
                 review.setTitle(title.ownText().trim());
 
             // date
-            Element date = reviewElement.select("span.review-date").first();
+            Element date = ExtractionRules.selectFirst(ExtractionRules.DATE, reviewElement);
             if (date != null) {
                 try {
-                    Pattern pattern = Pattern.compile("on (.+)");
-                    Matcher matcher = pattern.matcher(date.ownText().trim());
+                    Matcher matcher = ExtractionRules.DATE_PTTN.matcher(date.ownText().trim());
 
                     if (matcher.find())
-                        review.setDate(fmt_.parse(matcher.group(1)));
-                } catch (ParseException e) {
-                    e.printStackTrace();
+                        review.setDate(dateParser_.parse(matcher.group(1)));
+                } catch (DateTimeParseException e) {
+                    logger.warn("Unknown date", "date", e.getParsedString(), "review", review.getName());
                 }
             }
 
             // help ratio
-            Element helpRatio = reviewElement.select("span.review-votes").first();
+            Element helpRatio = ExtractionRules.selectFirst(ExtractionRules.HELP_RATIO, reviewElement);
             if (helpRatio != null) {
-                Pattern pattern = Pattern.compile("([\\d]+) of ([\\d]+) people found the following review helpful");
-                Matcher matcher = pattern.matcher(helpRatio.ownText());
+                Matcher matcher = ExtractionRules.HELP_RATIO_PTTN.matcher(helpRatio.ownText());
                 if (matcher.find()) {
                     float numerator = Float.parseFloat(matcher.group(1));
                     float denominator = Float.parseFloat(matcher.group(2));
@@ -94,13 +155,24 @@ public class ReviewCrawler extends Crawler {
             }
 
             // review text
-            Element text = reviewElement.select("span.review-text").first();
+            Element text = ExtractionRules.selectFirst(ExtractionRules.TEXT, reviewElement);
             if (text != null)
                 review.setText(text.ownText());
 
             reviews.put(review.getName(), review);
         }
 
+        if (stats_ != null)
+            stats_.getParseLatency().recordSince(start);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = page.location();
+            event.phase = "extract";
+            event.reviews = reviews.size();
+            event.commit();
+        }
+
         return reviews;
     }
 
@@ -112,8 +184,20 @@ public class ReviewCrawler extends Crawler {
      * @return                      Key: review id, Value: review object
      */
     public Map<String, Review> scrapePage(String asin, int nPage) {
+        return scrapePage(asin, nPage, false);
+    }
+
+
+    /**
+     * Scrape a review page and obtain all the reviews
+     * @param asin                  Amazon ASIN of the product
+     * @param nPage                 The specific page of the product review
+     * @param newestFirst           Whether the reviews are sorted by most recent
+     * @return                      Key: review id, Value: review object
+     */
+    public Map<String, Review> scrapePage(String asin, int nPage, boolean newestFirst) {
         // get page url
-        String url = getPageUrl(asin, nPage);
+        String url = getPageUrl(asin, nPage, newestFirst);
 
         // get page
         Document page = getPage(url);
@@ -121,104 +205,512 @@ public class ReviewCrawler extends Crawler {
         // parse page and construct Review objects
         Map<String, Review> reviews = parsePage(page);
 
-        logger.info("[" + asin + "] Done parsing review page " + nPage + "...");
+        if (stats_ != null && reviews != null)
+            stats_.addReviews(reviews.size());
+
+        logger.info("Done parsing review page", "asin", asin, "page", nPage);
 
         return reviews;
     }
 
 
     /**
-     * Crawl all the reviews of the specified product using product ASIN
+     * Scrape a review page without blocking the calling thread.
+     * Parsing is done by the parse workers of the pipeline, or the common
+     * pool without a pipeline, never by the threads of the transport.
+     * @param asin                  Amazon ASIN of the product
+     * @param nPage                 The specific page of the product review
+     * @return                      Future of the reviews, Key: review id, Value: review object
+     */
+    public CompletableFuture<Map<String, Review>> scrapePageAsync(final String asin, final int nPage) {
+        // get page url
+        String url = getPageUrl(asin, nPage);
+
+        return getPageAsync(url).thenApplyAsync(page -> {
+            // parse page
+            Map<String, Review> reviews = parsePage(page);
+
+            if (stats_ != null && reviews != null)
+                stats_.addReviews(reviews.size());
+
+            logger.info("Done parsing review page", "asin", asin, "page", nPage);
+
+            return reviews;
+        }, pipeline_ != null ? pipeline_.getParse().getExecutor() : ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Scrape a review page through the fetch, parse and persist stages
+     * of the pipeline. Blocks while the fetch stage is full.
+     * @param asin                  Amazon ASIN of the product
+     * @param nPage                 The specific page of the product review
+     * @param sink                  Receiver of the reviews, called by a persist worker
+     * @return                      Future of the number of reviews
+     * @throws InterruptedException
+     */
+    public CompletableFuture<Integer> scrapePageStaged(final String asin, final int nPage, final ReviewSink sink)
+            throws InterruptedException {
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        final String url = getPageUrl(asin, nPage);
+
+        pipeline_.getFetch().submit(() -> {
+            // cancelled while queued
+            if (result.isDone())
+                return null;
+
+            try {
+                fetchStage(asin, nPage, url, sink, result);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            return null;
+        });
+
+        return result;
+    }
+
+    // fetch the page, then hand it over to the parse stage
+    private void fetchStage(final String asin, final int nPage, String url,
+                            final ReviewSink sink, final CompletableFuture<Integer> result)
+            throws InterruptedException {
+        final Document page = getPage(url);
+
+        pipeline_.getParse().submit(() -> {
+            // cancelled while queued
+            if (result.isDone())
+                return null;
+
+            try {
+                parseStage(asin, nPage, page, sink, result);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            return null;
+        });
+    }
+
+    // parse the page, then hand the reviews over to the persist stage
+    private void parseStage(final String asin, final int nPage, Document page,
+                            final ReviewSink sink, final CompletableFuture<Integer> result)
+            throws InterruptedException {
+        final Map<String, Review> reviews = parsePage(page);
+
+        if (stats_ != null && reviews != null)
+            stats_.addReviews(reviews.size());
+
+        logger.info("Done parsing review page", "asin", asin, "page", nPage);
+
+        if (reviews == null || reviews.isEmpty()) {
+            result.complete(reviews == null ? FAILED_PAGE : 0);
+            return;
+        }
+
+        pipeline_.getPersist().submit(() -> {
+            // cancelled while queued, the page must not be stored
+            if (result.isDone())
+                return null;
+
+            try {
+                sink.accept(asin, nPage, reviews.values());
+                result.complete(reviews.size());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            return null;
+        });
+    }
+
+
+    // sink of one crawl, closed when the crawl returns: a page still being stored is
+    // waited for, the pages cancelled but already past their last check are dropped
+    private static class CrawlSink implements ReviewSink {
+        private final ReviewSink sink_;
+        private final ReadWriteLock lock_ = new ReentrantReadWriteLock();
+        private boolean closed_ = false;
+
+        CrawlSink(ReviewSink sink) {
+            this.sink_ = sink;
+        }
+
+        @Override
+        public void accept(String asin, int nPage, Collection<Review> reviews) throws IOException {
+            lock_.readLock().lock();
+            try {
+                if (!closed_)
+                    sink_.accept(asin, nPage, reviews);
+            } finally {
+                lock_.readLock().unlock();
+            }
+        }
+
+        void close() {
+            lock_.writeLock().lock();
+            closed_ = true;
+            lock_.writeLock().unlock();
+        }
+    }
+
+
+    // sink merging all the reviews into one Map
+    private static ReviewSink mapSink(final Map<String, Review> reviews) {
+        return new ReviewSink() {
+            @Override
+            public void accept(String asin, int nPage, Collection<Review> pageReviews) {
+                synchronized (reviews) {
+                    for (Review review : pageReviews)
+                        reviews.put(review.getName(), review);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Crawl all the reviews of the specified product using product ASIN.
+     * To keep many reviews in memory, give a util.CompactReviewStore to
+     * crawlReviews(asin, sink) instead
      * @param asin                  Amazon ASIN of the product
      * @return                      Key: review id, Value: review object
      */
     public Map<String, Review> crawlReviews(String asin) {
         Map<String, Review> reviews = new HashMap<>();
 
-        int nPage = 1;
+        try {
+            crawlReviews(asin, mapSink(reviews));
+        } catch (IOException e) {
+            // the map sink never fails, pages did: keep the reviews obtained
+            logger.warn("Incomplete reviews", "asin", asin, "error", e.getMessage());
+        }
+
+        return reviews;
+    }
+
+
+    /**
+     * Crawl all the reviews of the specified product using product ASIN,
+     * pushing each page of reviews to the sink as soon as it is parsed
+     * @param asin                  Amazon ASIN of the product
+     * @param sink                  Receiver of the reviews
+     * @return                      Number of reviews obtained
+     * @throws IOException          When the sink fails
+     */
+    public int crawlReviews(String asin, ReviewSink sink) throws IOException {
+        return crawlReviews(asin, 1, sink);
+    }
+
+
+    /**
+     * Crawl the reviews of the specified product from a given page on,
+     * e.g. to resume an interrupted crawl
+     * @param asin                  Amazon ASIN of the product
+     * @param firstPage             First page to be crawled
+     * @param sink                  Receiver of the reviews
+     * @return                      Number of reviews obtained
+     * @throws IOException          When the sink fails, or IncompleteCrawlException when pages failed
+     */
+    public int crawlReviews(String asin, int firstPage, ReviewSink sink) throws IOException {
+        int numOfReviews = 0;
+
+        int nPage = firstPage;
+        int failedInRow = 0;
+        int failedPages = 0;
         while (true) {
             // parse page and construct Review objects
-            Map<String, Review> pageReviews = scrapePage(asin, nPage++);
+            Map<String, Review> pageReviews = scrapePage(asin, nPage);
+
+            // a page not obtained is not the last one, skip it
+            if (pageReviews == null) {
+                ++failedPages;
+                if (++failedInRow >= MAX_FAILED_PAGES_IN_ROW) {
+                    logger.warn("Given up, pages failed in a row", "asin", asin, "page", nPage,
+                            "failed", failedInRow);
+                    break;
+                }
+                logger.warn("Review page skipped", "asin", asin, "page", nPage);
+                ++nPage;
+                continue;
+            }
+            failedInRow = 0;
+
+            // hand over to the sink
+            if (!pageReviews.isEmpty()) {
+                sink.accept(asin, nPage, pageReviews.values());
+                numOfReviews += pageReviews.size();
+                ++nPage;
+            } else {
+                logger.info("Done parsing reviews", "asin", asin, "page", nPage);
+                break;
+            }
+        }
+
+        if (failedPages > 0)
+            throw new IncompleteCrawlException(asin, failedPages, numOfReviews);
+
+        return numOfReviews;
+    }
+
+
+    /**
+     * Crawl only the reviews posted since the last crawl. Pages sorted by
+     * most recent are fetched one by one, until a page contains a review
+     * already known, or an empty or short page is reached.
+     * @param asin                  Amazon ASIN of the product
+     * @param knownIds              Ids of the reviews obtained by the last crawl
+     * @param sink                  Receiver of the new reviews
+     * @return                      Number of new reviews obtained
+     * @throws IOException          When the sink fails, or IncompleteCrawlException when a page failed
+     */
+    public int crawlNewReviews(String asin, Set<String> knownIds, ReviewSink sink) throws IOException {
+        int numOfReviews = 0;
+
+        int nPage = 1;
+        while (!Thread.currentThread().isInterrupted()) {
+            Map<String, Review> pageReviews = scrapePage(asin, nPage, true);
 
-            // merge into one Map
-            if (pageReviews != null && !pageReviews.isEmpty())
-                reviews.putAll(pageReviews);
-            else {
-                logger.info("[" + asin + "] Done Parsing Reviews at Page " + nPage);
+            // not caught up, the reviews past this page are unknown
+            if (pageReviews == null)
+                throw new IncompleteCrawlException(asin, 1, numOfReviews);
+            if (pageReviews.isEmpty())
                 break;
+
+            // keep the new reviews only
+            List<Review> newReviews = new ArrayList<>(pageReviews.size());
+            for (Review review : pageReviews.values())
+                if (!knownIds.contains(review.getName()))
+                    newReviews.add(review);
+
+            if (!newReviews.isEmpty()) {
+                sink.accept(asin, nPage, newReviews);
+                numOfReviews += newReviews.size();
             }
+
+            // caught up with the last crawl, or reached the oldest review
+            if (newReviews.size() < pageReviews.size() || pageReviews.size() < REVIEWS_PER_PAGE)
+                break;
+
+            ++nPage;
         }
 
-        return reviews;
+        logger.info("New reviews", "asin", asin, "reviews", numOfReviews, "pages", nPage);
+
+        return numOfReviews;
     }
 
-    class ReviewCrawlerThread implements Callable<Map<String, Review>> {
+    class ReviewCrawlerThread implements Callable<Integer> {
         private String asin;
         private int nPage;
-        private boolean enableVerbose;
+        private ReviewSink sink;
 
         private ReviewCrawlerThread() {}
 
-        public ReviewCrawlerThread(String asin, int nPage, boolean enableVerbose) {
+        public ReviewCrawlerThread(String asin, int nPage, ReviewSink sink) {
             super();
             this.asin = asin;
             this.nPage = nPage;
-            this.enableVerbose = enableVerbose;
+            this.sink = sink;
         }
 
         @Override
-        public Map<String, Review> call() throws Exception {
-            ReviewCrawler rc = new ReviewCrawler();
-            if (enableVerbose)
-                rc.enableVerbose();
-
-            return rc.scrapePage(asin, nPage);
+        public Integer call() throws Exception {
+            Map<String, Review> reviews = scrapePage(asin, nPage);
+            if (reviews == null)
+                return FAILED_PAGE;
+            if (reviews.isEmpty())
+                return 0;
+
+            sink.accept(asin, nPage, reviews.values());
+            return reviews.size();
         }
     }
 
     /**
      * Crawl all the reviews of the specified product using product object.
+     * Pages are fetched by the pipeline or the shared fetch engine, or by
+     * the asynchronous transport when asynchronous fetching is enabled.
      * @param product           Already obtained product object
      * @return                  Key: review id, Value: review object
      */
     public Map<String, Review> crawlReviewsMT(Product product) {
         Map<String, Review> reviews = new HashMap<>();
 
+        try {
+            crawlReviewsMT(product, mapSink(reviews));
+        } catch (IOException e) {
+            // the map sink never fails, pages did: keep the reviews obtained
+            logger.warn("Incomplete reviews", "asin", product.getAsin(), "error", e.getMessage());
+        }
+
+        return reviews;
+    }
+
+
+    /**
+     * Crawl all the reviews of the specified product using product object,
+     * pushing each page of reviews to the sink as soon as it is parsed.
+     * The sink must be thread-safe.
+     *
+     * The number of reviews on product page is only used as a hint.
+     * Pages are fetched within a window, which is doubled while pages
+     * beyond the hint come back full, until an empty or short page marks
+     * the last one. Pages queued past the last one are cancelled, the ones
+     * running are not interrupted, a worker may be writing to the sink.
+     * @param product           Already obtained product object
+     * @param sink              Receiver of the reviews
+     * @return                  Number of reviews obtained
+     * @throws IOException      When the sink fails
+     */
+    public int crawlReviewsMT(Product product, final ReviewSink sink) throws IOException {
+        return crawlReviewsMT(product, 1, sink);
+    }
+
+
+    /**
+     * Crawl the reviews of the specified product from a given page on,
+     * e.g. to resume an interrupted crawl. Multi-threading version.
+     * @param product           Already obtained product object
+     * @param firstPage         First page to be crawled
+     * @param sink              Receiver of the reviews
+     * @return                  Number of reviews obtained
+     * @throws IOException      When the sink fails, or IncompleteCrawlException when pages failed,
+     *                          or InterruptedIOException when interrupted
+     */
+    public int crawlReviewsMT(Product product, int firstPage, ReviewSink sink) throws IOException {
+        int total = 0;
+
         if (product != null) {
-            int numOfReviews = product.getNumOfReviewsOnPage();
-
-            // create thread pool according to number of pages to be crawled
-            if (numOfReviews > 0) {
-                int numOfPages = numOfReviews / 10 + 1;     // Amazon has 10 reviews per page
-                int numOfThreads = Math.min(numOfPages, 8); // let's use at most 8 threads
-
-                // create thread pool and send out crawler thread
-                ExecutorService es = Executors.newFixedThreadPool(numOfThreads);
-                List<Future<Map<String, Review>>> futureList = new ArrayList<>();
-                for (int nPage = 1; nPage <= numOfPages; ++nPage)
-                    futureList.add(es.submit(new ReviewCrawlerThread(product.getAsin(),
-                            nPage, logger.isVerbose())));
-
-                // shutdown executors once tasks are done, or expired
-                es.shutdown();
+            final String asin = product.getAsin();
+            final CrawlSink crawlSink = new CrawlSink(sink);
+
+            // the count on product page is only a hint, it can be missing or stale
+            Integer numOfReviews = product.getNumOfReviewsOnPage();
+            int hintPages = numOfReviews != null && numOfReviews > 0
+                    ? (numOfReviews + REVIEWS_PER_PAGE - 1) / REVIEWS_PER_PAGE : 0;
+            int hintRemaining = hintPages - firstPage + 1;
+            int window = hintRemaining > 0 ? Math.min(hintRemaining, maxWindow_) : initialWindow_;
+
+            // pages in flight, in the order of page number
+            Deque<Future<Integer>> inFlight = new ArrayDeque<>();
+            int nextPage = firstPage;
+            int failedInRow = 0;
+            int failedPages = 0;
+            boolean lastPageFound = false;
+            IOException sinkError = null;
+
+            while (!Thread.currentThread().isInterrupted()) {
+                // keep the speculative window filled
                 try {
-                    es.awaitTermination(2, TimeUnit.HOURS);
+                    while (!lastPageFound && inFlight.size() < window)
+                        inFlight.addLast(submitPage(asin, nextPage++, crawlSink));
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    break;
                 }
 
-                // merge all the results
-                for (Future<Map<String, Review>> future : futureList) {
-                    try {
-                        reviews.putAll(future.get());
-                    } catch (InterruptedException | ExecutionException e) {
-                        e.printStackTrace();
+                if (inFlight.isEmpty())
+                    break;
+
+                // wait for the earliest page
+                int nPage = nextPage - inFlight.size();
+                int pageReviews = 0;
+                try {
+                    pageReviews = inFlight.pollFirst().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (CancellationException e) {
+                    continue;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        sinkError = (IOException) e.getCause();
+                    } else {
+                        // a bug rather than the last page, count it as failed
+                        logger.warn("Review page failed", "asin", asin, "page", nPage,
+                                "error", String.valueOf(e.getCause()));
+                        pageReviews = FAILED_PAGE;
                     }
                 }
+                if (pageReviews > 0)
+                    total += pageReviews;
+
+                // pages past the last one are not missed
+                if (lastPageFound)
+                    continue;
+
+                // a page not obtained is not the last one, skip it
+                if (pageReviews == FAILED_PAGE) {
+                    ++failedPages;
+                    if (++failedInRow >= MAX_FAILED_PAGES_IN_ROW) {
+                        lastPageFound = true;
+                        for (Future<Integer> future : inFlight)
+                            future.cancel(false);
+
+                        logger.warn("Given up, pages failed in a row", "asin", asin, "page", nPage,
+                                "failed", failedInRow);
+                    } else {
+                        logger.warn("Review page skipped", "asin", asin, "page", nPage);
+                    }
+                    continue;
+                }
+                failedInRow = 0;
+
+                if (pageReviews < REVIEWS_PER_PAGE) {
+                    // an empty or short page is the last one, drop the pages past it
+                    lastPageFound = true;
+                    int cancelled = 0;
+                    for (Future<Integer> future : inFlight)
+                        if (future.cancel(false))
+                            ++cancelled;
+
+                    logger.info("Last review page found", "asin", asin, "page", nPage,
+                            "cancelled", cancelled);
+                } else if (nPage >= hintPages) {
+                    // full page beyond the hint, speculate further
+                    window = Math.min(Math.max(window, 1) * 2, maxWindow_);
+                }
             }
+
+            // cancel whatever is left after an interruption, nothing is stored past this point
+            for (Future<Integer> future : inFlight)
+                future.cancel(false);
+            crawlSink.close();
+
+            if (sinkError != null)
+                throw sinkError;
+            if (failedPages > 0)
+                throw new IncompleteCrawlException(asin, failedPages, total);
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("Interrupted crawling reviews of " + asin);
         }
 
-        return reviews;
+        return total;
+    }
+
+    // submit a review page in the current fetching mode, blocks while saturated unless asynchronous
+    private Future<Integer> submitPage(final String asin, final int nPage, final ReviewSink sink)
+            throws InterruptedException {
+        if (asyncFetch_) {
+            // stored by the persist workers, the parse workers go on parsing
+            Executor persist = pipeline_ != null ? pipeline_.getPersist().getExecutor() : ForkJoinPool.commonPool();
+            return scrapePageAsync(asin, nPage).thenApplyAsync(reviews -> {
+                if (reviews == null)
+                    return FAILED_PAGE;
+                if (reviews.isEmpty())
+                    return 0;
+
+                try {
+                    sink.accept(asin, nPage, reviews.values());
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+                return reviews.size();
+            }, persist);
+        }
+
+        if (pipeline_ != null)
+            return scrapePageStaged(asin, nPage, sink);
+
+        return getFetchEngine_().submit(new ReviewCrawlerThread(asin, nPage, sink));
     }
 
 
@@ -233,6 +725,14 @@ public class ReviewCrawler extends Crawler {
 
         // get the product info to obtain total number of reviews
         ProductCrawler pc = new ProductCrawler();
+        pc.setFetchPermits_(fetchPermits_);
+        pc.setStats_(stats_);
+        pc.setAsyncFetch_(asyncFetch_);
+        pc.setPageCache_(pageCache_);
+        pc.setTransport_(transport_);
+        pc.setFetchLimiter_(fetchLimiter_);
+        pc.setRetryPolicy_(retryPolicy_);
+        pc.setBaseUrl_(getBaseUrl_());
         Map<String, Product> productMap = pc.crawlProduct(asin);
 
         if (!productMap.isEmpty()) {
@@ -0,0 +1,49 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe parser of review dates such as "January 5, 2015".
+ * Review dates repeat heavily, so parsed strings are cached.
+ */
+final class ReviewDateParser {
+
+    // immutable, thus shareable among threads
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("MMMM d, yyyy", Locale.ENGLISH);
+
+    // cache is simply dropped once full
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    // date string -> epoch millis at the start of that day
+    private final ConcurrentMap<String, Long> cache_ = new ConcurrentHashMap<>();
+
+    /**
+     * Parse a date string
+     * @param text              Date string, e.g. "January 5, 2015"
+     * @return                  Start of the day in default time zone
+     * @throws DateTimeParseException   When the string is not a date
+     */
+    Date parse(String text) {
+        Long millis = cache_.get(text);
+        if (millis == null) {
+            millis = LocalDate.parse(text, FORMATTER)
+                    .atStartOfDay(ZoneId.systemDefault())
+                    .toInstant()
+                    .toEpochMilli();
+
+            if (cache_.size() >= MAX_CACHE_SIZE)
+                cache_.clear();
+            cache_.put(text, millis);
+        }
+
+        // Date is mutable, never hand out a shared instance
+        return new Date(millis);
+    }
+}
@@ -0,0 +1,24 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import edu.cpp.iipl.crawlers.amazon.model.Review;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Receives reviews as soon as each page is parsed, so that the reviews of
+ * a product never have to be held in memory all at once.
+ * With multi-threading, pages are pushed from several threads at once and
+ * in no particular order.
+ */
+public interface ReviewSink {
+
+    /**
+     * Accept the reviews of one page
+     * @param asin              Amazon ASIN of the product
+     * @param nPage             The specific page of the product review
+     * @param reviews           Reviews parsed from the page
+     * @throws IOException
+     */
+    void accept(String asin, int nPage, Collection<Review> reviews) throws IOException;
+}
@@ -0,0 +1,129 @@
+package edu.cpp.iipl.crawlers.amazon.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of long-lived workers with a bounded hand-off queue.
+ * The number of threads is fixed, and submitting blocks once the queue
+ * is full so that callers are throttled instead of piling up tasks.
+ */
+public class Stage {
+
+    // name of the stage, also used for the worker threads
+    private final String name_;
+
+    // maximum number of tasks waiting for a worker
+    private final int queueSize_;
+
+    // workers
+    private final ThreadPoolExecutor pool_;
+
+    // admission permits, one per running or queued task
+    private final Semaphore admission_;
+
+    public Stage(String name, int numOfThreads, int queueSize) {
+        this.name_ = name;
+        this.queueSize_ = queueSize;
+        this.pool_ = new ThreadPoolExecutor(numOfThreads, numOfThreads,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new WorkerFactory(name));
+        this.admission_ = new Semaphore(numOfThreads + queueSize);
+    }
+
+    /**
+     * Submit a task, waiting while the queue is full
+     * @param task              Task to be executed by a worker
+     * @param <T>               Type of the result
+     * @return                  Future of the result
+     * @throws InterruptedException
+     */
+    public <T> Future<T> submit(final Callable<T> task) throws InterruptedException {
+        admission_.acquire();
+
+        // the permit is returned however the task completes, also when cancelled while queued
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (isCancelled())
+                    pool_.remove(this);
+                admission_.release();
+            }
+        };
+
+        try {
+            pool_.execute(future);
+        } catch (RuntimeException e) {
+            admission_.release();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Run tasks on the workers without waiting for admission, for callers
+     * that must not block such as the continuations of asynchronous fetches,
+     * whose number is bounded upstream by the fetch permits
+     * @return                  Executor of the workers
+     */
+    public Executor getExecutor() {
+        return pool_::execute;
+    }
+
+    public String getName() {
+        return name_;
+    }
+
+    public int getNumOfThreads() {
+        return pool_.getMaximumPoolSize();
+    }
+
+    public int getQueueSize() {
+        return queueSize_;
+    }
+
+    public int getActiveCount() {
+        return pool_.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return pool_.getQueue().size();
+    }
+
+    public void shutdown() {
+        pool_.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return name_ + " " + getActiveCount() + "/" + getNumOfThreads()
+                + " busy, " + getQueueDepth() + "/" + queueSize_ + " queued";
+    }
+
+    // daemon workers so that an idle stage never keeps the JVM alive
+    private static class WorkerFactory implements ThreadFactory {
+        private static final AtomicInteger poolId = new AtomicInteger();
+        private final String prefix;
+        private final AtomicInteger threadId = new AtomicInteger();
+
+        WorkerFactory(String name) {
+            this.prefix = name + "-" + poolId.incrementAndGet() + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -3,10 +3,23 @@ package edu.cpp.iipl.crawlers.amazon.model;
 import java.util.Date;
 
 /**
+ * Numbers and the date are kept as primitives, with sentinels for the
+ * missing values, the permalink is derived from the name unless set to
+ * something else, and model numbers are interned since they are shared
+ * by all the reviews of a product. Getters still return null for missing
+ * values, and a new Date on each call.
+ *
  * Created by xing on 12/22/15.
  */
 public class Review {
 
+    // permalink of a review is this prefix followed by its name
+    public static final String PERMALINK_PREFIX = "http://www.amazon.com/review/";
+
+    // missing rate, date and crawled times
+    private static final int NO_INT = Integer.MIN_VALUE;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
     //@Id
     //@GeneratedValue
     private Long id;
@@ -16,24 +29,24 @@ public class Review {
     //@Size(min=1, max=256)
     private String name;
 
-    private Integer rate;
+    private int rate = NO_INT;
 
     //@Size(min=1, max=2048)
     private String title;
 
-    private Date date;
+    private long date = NO_DATE;  // epoch millis
 
     //@Size(min=1, max=2048)
-    private String permalink;
+    private String permalink;   // only if not derived from the name
 
-    private Float helpRatio;
+    private float helpRatio = Float.NaN;
 
     private String modelNum;    // from product
 
     private String text;     // review text
 
     //@JsonIgnore
-    private Integer crawledTimes;   // how many times crawled by ContentCrawler
+    private int crawledTimes = NO_INT;   // how many times crawled by ContentCrawler
 
     //@JsonIgnore
     //@ManyToOne
@@ -63,11 +76,11 @@ public class Review {
     }
 
     public Integer getRate() {
-        return rate;
+        return rate == NO_INT ? null : rate;
     }
 
     public void setRate(Integer rate) {
-        this.rate = rate;
+        this.rate = rate == null ? NO_INT : rate;
     }
 
     public String getTitle() {
@@ -79,27 +92,34 @@ public class Review {
     }
 
     public Date getDate() {
-        return date;
+        return date == NO_DATE ? null : new Date(date);
     }
 
     public void setDate(Date date) {
-        this.date = date;
+        this.date = date == null ? NO_DATE : date.getTime();
     }
 
     public String getPermalink() {
-        return permalink;
+        if (permalink != null)
+            return permalink;
+        return name == null ? null : PERMALINK_PREFIX + name;
     }
 
     public void setPermalink(String permalink) {
-        this.permalink = permalink;
+        // nothing to keep when derived from the name
+        boolean derived = permalink != null && name != null
+                && permalink.length() == PERMALINK_PREFIX.length() + name.length()
+                && permalink.startsWith(PERMALINK_PREFIX) && permalink.endsWith(name);
+        this.permalink = derived ? null : permalink;
     }
 
+    // NaN for missing
     public Float getHelpRatio() {
-        return helpRatio;
+        return Float.isNaN(helpRatio) ? null : helpRatio;
     }
 
     public void setHelpRatio(Float helpRatio) {
-        this.helpRatio = helpRatio;
+        this.helpRatio = helpRatio == null ? Float.NaN : helpRatio;
     }
 
     public String getModelNum() {
@@ -107,7 +127,7 @@ public class Review {
     }
 
     public void setModelNum(String modelNum) {
-        this.modelNum = modelNum;
+        this.modelNum = modelNum == null ? null : modelNum.intern();
     }
 
     public String getText() {
@@ -119,11 +139,11 @@ public class Review {
     }
 
     public Integer getCrawledTimes() {
-        return crawledTimes;
+        return crawledTimes == NO_INT ? null : crawledTimes;
     }
 
     public void setCrawledTimes(Integer crawledTimes) {
-        this.crawledTimes = crawledTimes;
+        this.crawledTimes = crawledTimes == null ? NO_INT : crawledTimes;
     }
 
     public Product getProduct() {
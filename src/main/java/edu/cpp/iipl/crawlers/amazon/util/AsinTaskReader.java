@@ -0,0 +1,137 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the products of a batch file lazily, one "ASIN::product name" line
+ * at a time, so that a file of millions of lines neither sits in memory
+ * nor delays the first fetch. The file is memory-mapped one window at a
+ * time. Reading can start from any byte offset, e.g. the one printed by an
+ * interrupted run: a line cut by the offset is skipped.
+ * Not thread-safe, except for getOffset().
+ */
+public class AsinTaskReader implements Closeable {
+
+    // bytes mapped at once
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel_;
+
+    private final long size_;
+
+    // mapped part of the file
+    private MappedByteBuffer window_ = null;
+    private long windowStart_ = 0;
+
+    // offset of the next line
+    private volatile long offset_;
+
+    // offset of the line of the last task returned
+    private long lineOffset_ = -1;
+
+    // bytes of the current line
+    private byte[] line_ = new byte[256];
+
+    /**
+     * Open a batch file
+     * @param file              File containing list of ASINs in "ASIN::product name" format
+     * @param offset            Byte offset to start from, 0 for the whole file
+     * @throws IOException
+     */
+    public AsinTaskReader(File file, long offset) throws IOException {
+        this.channel_ = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size_ = channel_.size();
+        this.offset_ = Math.max(0, Math.min(offset, size_));
+
+        // in the middle of a line, start at the next one
+        if (offset_ > 0 && byteAt(offset_ - 1) != '\n')
+            readLine();
+    }
+
+    /**
+     * Next product with a valid ASIN
+     * @return                  ASIN and product name (empty if none), null at the end of the file
+     * @throws IOException
+     */
+    public String[] next() throws IOException {
+        while (offset_ < size_) {
+            long start = offset_;
+            int length = readLine();
+
+            String text = new String(line_, 0, length, StandardCharsets.UTF_8).trim();
+            int sep = text.indexOf("::");
+            String asin = sep < 0 ? text : text.substring(0, sep);
+            if (!CommandLine.validAsin(asin))
+                continue;
+
+            lineOffset_ = start;
+            return new String[] {asin, sep < 0 ? "" : text.substring(sep + 2).trim()};
+        }
+        return null;
+    }
+
+    // offset of the line of the last task returned
+    public long getLineOffset() {
+        return lineOffset_;
+    }
+
+    // offset of the next line to be read
+    public long getOffset() {
+        return offset_;
+    }
+
+    public long getSize() {
+        return size_;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window_ = null;
+        channel_.close();
+    }
+
+    // read the line at the offset into line_, without its line feed, returns its length
+    private int readLine() throws IOException {
+        int length = 0;
+        long pos = offset_;
+        while (pos < size_) {
+            byteAt(pos);    // maps the window of pos
+
+            int i = (int) (pos - windowStart_);
+            int limit = window_.limit();
+            boolean eol = false;
+            while (i < limit) {
+                byte b = window_.get(i++);
+                if (b == '\n') {
+                    eol = true;
+                    break;
+                }
+
+                if (length == line_.length)
+                    line_ = Arrays.copyOf(line_, 2 * length);
+                line_[length++] = b;
+            }
+            pos = windowStart_ + i;
+
+            if (eol)
+                break;
+        }
+        offset_ = pos;
+        return length;
+    }
+
+    private byte byteAt(long pos) throws IOException {
+        if (window_ == null || pos < windowStart_ || pos >= windowStart_ + window_.limit()) {
+            windowStart_ = pos;
+            window_ = channel_.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW_SIZE, size_ - pos));
+        }
+        return window_.get((int) (pos - windowStart_));
+    }
+}
@@ -0,0 +1,210 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Progress of a batch crawl, so that a rerun can skip the finished work.
+ *
+ * The journal is a text file only ever appended to, one record per line:
+ *  P <ASIN> <page> <reviews>   a review page of the product is stored
+ *  D <ASIN> <reviews>          the product is done
+ * The reviews of the pages stored before an interruption thus still count in
+ * the total of the resumed product. Page records of older journals, without
+ * their number of reviews, count for none.
+ * Each record is flushed as soon as it is written, so that it survives the
+ * crawler being killed. A torn last line is cut off on resuming, before any
+ * record is appended to it.
+ * Thread-safe.
+ */
+public class CheckpointJournal implements Closeable {
+
+    public static final String JOURNAL_FILE = "checkpoint.journal";
+
+    private static final String PAGE = "P";
+    private static final String PRODUCT = "D";
+
+    // products done
+    private final Set<String> doneProducts_ = new HashSet<>();
+
+    // review pages stored of the products not done yet
+    private final Map<String, BitSet> donePages_ = new HashMap<>();
+
+    // reviews of the pages stored, of the products not done yet
+    private final Map<String, Integer> doneReviews_ = new HashMap<>();
+
+    private final Writer out_;
+
+    /**
+     * Open the journal of a batch
+     * @param dir               Directory for crawled results
+     * @param resume            Load the progress recorded so far, or start over
+     * @throws IOException
+     */
+    public CheckpointJournal(File dir, boolean resume) throws IOException {
+        File file = new File(dir, JOURNAL_FILE);
+
+        if (resume && file.exists()) {
+            truncateTornLine(file);
+            load(file);
+        }
+
+        this.out_ = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, resume), StandardCharsets.UTF_8));
+    }
+
+    public synchronized boolean isDone(String asin) {
+        return doneProducts_.contains(asin);
+    }
+
+    public synchronized int getNumOfDoneProducts() {
+        return doneProducts_.size();
+    }
+
+    /**
+     * First review page of the product not stored yet
+     * @param asin              Amazon ASIN of the product
+     * @return                  Page to resume from, 1 if nothing is stored
+     */
+    public synchronized int firstMissingPage(String asin) {
+        BitSet pages = donePages_.get(asin);
+        return pages == null ? 1 : pages.nextClearBit(1);
+    }
+
+    /**
+     * Whether a review page of the product is stored already, e.g. past
+     * the first missing page of a resumed product
+     * @param asin              Amazon ASIN of the product
+     * @param nPage             Page of the reviews
+     * @return                  True if the page is recorded
+     */
+    public synchronized boolean isPageDone(String asin, int nPage) {
+        BitSet pages = donePages_.get(asin);
+        return pages != null && pages.get(nPage);
+    }
+
+    /**
+     * Number of reviews in the pages of the product stored so far, by this
+     * run and the interrupted ones before
+     * @param asin              Amazon ASIN of the product
+     * @return                  Reviews stored, 0 if no page is
+     */
+    public synchronized int getNumOfStoredReviews(String asin) {
+        Integer reviews = doneReviews_.get(asin);
+        return reviews == null ? 0 : reviews;
+    }
+
+    /**
+     * Record a stored review page
+     * @param asin              Amazon ASIN of the product
+     * @param nPage             Page of the reviews
+     * @param numOfReviews      Number of reviews stored from the page
+     * @throws IOException
+     */
+    public synchronized void pageDone(String asin, int nPage, int numOfReviews) throws IOException {
+        markPage(asin, nPage, numOfReviews);
+
+        append(PAGE + " " + asin + " " + nPage + " " + numOfReviews);
+    }
+
+    /**
+     * Record a finished product
+     * @param asin              Amazon ASIN of the product
+     * @param numOfReviews      Number of reviews obtained
+     * @throws IOException
+     */
+    public synchronized void productDone(String asin, int numOfReviews) throws IOException {
+        doneProducts_.add(asin);
+        donePages_.remove(asin);
+        doneReviews_.remove(asin);
+
+        append(PRODUCT + " " + asin + " " + numOfReviews);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out_.close();
+    }
+
+    private void append(String record) throws IOException {
+        out_.write(record);
+        out_.write('\n');
+        out_.flush();
+    }
+
+    /**
+     * Cut a torn last line off a file only ever appended to by lines
+     * @param file              File to be truncated
+     * @return                  Length of the complete lines kept
+     * @throws IOException
+     */
+    static long truncateTornLine(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            long end = length;
+            byte[] buf = new byte[4096];
+
+            // search the last '\n' backwards
+            while (end > 0) {
+                int n = (int) Math.min(buf.length, end);
+                raf.seek(end - n);
+                raf.readFully(buf, 0, n);
+
+                int i = n - 1;
+                while (i >= 0 && buf[i] != '\n')
+                    --i;
+                if (i >= 0) {
+                    end = end - n + i + 1;
+                    break;
+                }
+                end -= n;
+            }
+
+            if (end < length)
+                raf.setLength(end);
+            return end;
+        }
+    }
+
+    private void load(File file) throws IOException {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] record = line.split(" ");
+
+                if (PRODUCT.equals(record[0]) && record.length == 3) {
+                    doneProducts_.add(record[1]);
+                    donePages_.remove(record[1]);
+                    doneReviews_.remove(record[1]);
+                } else if (PAGE.equals(record[0]) && (record.length == 3 || record.length == 4)
+                        && !doneProducts_.contains(record[1])) {
+                    try {
+                        int nPage = Integer.parseInt(record[2]);
+                        int numOfReviews = record.length == 4 ? Integer.parseInt(record[3]) : 0;
+                        markPage(record[1], nPage, numOfReviews);
+                    } catch (NumberFormatException e) {
+                        // torn record
+                    }
+                }
+            }
+        }
+    }
+
+    // add a stored page, counted once if recorded twice
+    private void markPage(String asin, int nPage, int numOfReviews) {
+        BitSet pages = donePages_.get(asin);
+        if (pages == null)
+            donePages_.put(asin, pages = new BitSet());
+        if (pages.get(nPage))
+            return;
+
+        pages.set(nPage);
+        doneReviews_.put(asin, getNumOfStoredReviews(asin) + numOfReviews);
+    }
+}
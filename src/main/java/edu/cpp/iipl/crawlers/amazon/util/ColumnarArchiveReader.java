@@ -0,0 +1,203 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import edu.cpp.iipl.crawlers.amazon.util.ColumnarArchiveWriter.Column;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the columns of an archive written by ColumnarArchiveWriter.
+ * Only the chunks of the requested column are read, so e.g. a rating
+ * histogram never decompresses any review text.
+ */
+public class ColumnarArchiveReader implements Closeable {
+
+    private final RandomAccessFile raf_;
+
+    private final String[] asinDict_;
+    private final String[] modelDict_;
+
+    // rows and column chunks (offset, length) of each row group
+    private final int[] groupRows_;
+    private final long[][] groupChunks_;
+
+    private final int numOfRows_;
+
+    public ColumnarArchiveReader(File file) throws IOException {
+        this.raf_ = new RandomAccessFile(file, "r");
+
+        if (raf_.readInt() != ColumnarArchiveWriter.MAGIC)
+            throw new IOException("Not a review archive: " + file);
+        int version = raf_.readInt();
+        if (version != ColumnarArchiveWriter.VERSION)
+            throw new IOException("Unsupported archive version " + version + ": " + file);
+
+        // footer
+        raf_.seek(raf_.length() - 12);
+        long footer = raf_.readLong();
+        if (raf_.readInt() != ColumnarArchiveWriter.MAGIC)
+            throw new IOException("Truncated review archive: " + file);
+
+        raf_.seek(footer);
+        this.asinDict_ = readDictionary();
+        this.modelDict_ = readDictionary();
+
+        int numOfColumns = Column.values().length;
+        int numOfGroups = raf_.readInt();
+        this.groupRows_ = new int[numOfGroups];
+        this.groupChunks_ = new long[numOfGroups][2 * numOfColumns];
+        int rows = 0;
+        for (int g = 0; g < numOfGroups; ++g) {
+            groupRows_[g] = raf_.readInt();
+            rows += groupRows_[g];
+            for (int c = 0; c < numOfColumns; ++c) {
+                groupChunks_[g][2 * c] = raf_.readLong();
+                groupChunks_[g][2 * c + 1] = raf_.readInt();
+            }
+        }
+        this.numOfRows_ = rows;
+    }
+
+    public int getNumOfRows() {
+        return numOfRows_;
+    }
+
+    public String[] getAsinDictionary() {
+        return asinDict_;
+    }
+
+    public String[] getModelNumDictionary() {
+        return modelDict_;
+    }
+
+    /**
+     * Dictionary codes of ASIN or MODEL_NUM, -1 for none
+     * @param column            Column.ASIN or Column.MODEL_NUM
+     * @return                  One code per review
+     * @throws IOException
+     */
+    public synchronized int[] readCodes(Column column) throws IOException {
+        if (column != Column.ASIN && column != Column.MODEL_NUM)
+            throw new IllegalArgumentException(column + " is not dictionary encoded");
+        return readInts(column);
+    }
+
+    /**
+     * Review dates as epoch days, Integer.MIN_VALUE for none
+     * @return                  One day per review
+     * @throws IOException
+     */
+    public synchronized int[] readEpochDays() throws IOException {
+        return readInts(Column.DATE);
+    }
+
+    /**
+     * Ratings, 0 for none
+     * @return                  One rating per review
+     * @throws IOException
+     */
+    public synchronized byte[] readRates() throws IOException {
+        byte[] rates = new byte[numOfRows_];
+        int row = 0;
+        for (int g = 0; g < groupRows_.length; ++g) {
+            byte[] chunk = readChunk(g, Column.RATE);
+            System.arraycopy(chunk, 0, rates, row, groupRows_[g]);
+            row += groupRows_[g];
+        }
+        return rates;
+    }
+
+    /**
+     * Helpful ratios, NaN for none
+     * @return                  One ratio per review
+     * @throws IOException
+     */
+    public synchronized float[] readHelpRatios() throws IOException {
+        float[] ratios = new float[numOfRows_];
+        int row = 0;
+        for (int g = 0; g < groupRows_.length; ++g) {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(readChunk(g, Column.HELP_RATIO)));
+            for (int i = 0; i < groupRows_[g]; ++i)
+                ratios[row++] = data.readFloat();
+        }
+        return ratios;
+    }
+
+    /**
+     * Decompress a string column
+     * @param column            Column.NAME, Column.TITLE or Column.TEXT
+     * @return                  One string (or null) per review
+     * @throws IOException
+     */
+    public synchronized List<String> readStrings(Column column) throws IOException {
+        if (column != Column.NAME && column != Column.TITLE && column != Column.TEXT)
+            throw new IllegalArgumentException(column + " is not a string column");
+
+        List<String> values = new ArrayList<>(numOfRows_);
+        for (int g = 0; g < groupRows_.length; ++g) {
+            try (DataInputStream data = new DataInputStream(new InflaterInputStream(
+                    new ByteArrayInputStream(readChunk(g, column))))) {
+                for (int i = 0; i < groupRows_[g]; ++i) {
+                    int length = data.readInt();
+                    if (length < 0) {
+                        values.add(null);
+                    } else {
+                        byte[] utf8 = new byte[length];
+                        data.readFully(utf8);
+                        values.add(new String(utf8, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Number of reviews of each rating, reading the rating column only
+     * @return                  Index 1 to 5: count of the rating, index 0: reviews without rating
+     * @throws IOException
+     */
+    public int[] rateHistogram() throws IOException {
+        int[] histogram = new int[6];
+        for (byte rate : readRates())
+            if (rate >= 0 && rate <= 5)
+                ++histogram[rate];
+        return histogram;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        raf_.close();
+    }
+
+    private int[] readInts(Column column) throws IOException {
+        int[] values = new int[numOfRows_];
+        int row = 0;
+        for (int g = 0; g < groupRows_.length; ++g) {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(readChunk(g, column)));
+            for (int i = 0; i < groupRows_[g]; ++i)
+                values[row++] = data.readInt();
+        }
+        return values;
+    }
+
+    private byte[] readChunk(int group, Column column) throws IOException {
+        long offset = groupChunks_[group][2 * column.ordinal()];
+        int length = (int) groupChunks_[group][2 * column.ordinal() + 1];
+
+        byte[] chunk = new byte[length];
+        raf_.seek(offset);
+        raf_.readFully(chunk);
+        return chunk;
+    }
+
+    private String[] readDictionary() throws IOException {
+        String[] dict = new String[raf_.readInt()];
+        for (int i = 0; i < dict.length; ++i)
+            dict[i] = raf_.readUTF();
+        return dict;
+    }
+}
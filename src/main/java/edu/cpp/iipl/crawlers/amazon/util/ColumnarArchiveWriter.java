@@ -0,0 +1,221 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import edu.cpp.iipl.crawlers.amazon.core.ReviewSink;
+import edu.cpp.iipl.crawlers.amazon.model.Review;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Exports reviews into a compressed columnar archive for analytics.
+ *
+ * Reviews are buffered into row groups, and each column of a row group is
+ * stored on its own so that a reader can scan one column (e.g. ratings)
+ * without touching the others:
+ *
+ *  ASIN, MODEL_NUM         dictionary codes (int), dictionaries in the footer
+ *  DATE                    epoch days (int), Integer.MIN_VALUE for none
+ *  RATE                    byte, 0 for none
+ *  HELP_RATIO              float, NaN for none
+ *  NAME, TITLE, TEXT       deflated block of length-prefixed UTF-8 strings
+ *
+ * File layout: magic, row groups, footer (dictionaries and the offset and
+ * length of every column chunk), offset of the footer, magic.
+ * Thread-safe.
+ */
+public class ColumnarArchiveWriter implements ReviewSink, Closeable {
+
+    static final int MAGIC = 0x41435243;     // "ACRC"
+    static final int VERSION = 1;
+
+    // columns in the order they are stored in a row group
+    public enum Column { ASIN, MODEL_NUM, DATE, RATE, HELP_RATIO, NAME, TITLE, TEXT }
+
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    // default number of reviews per row group
+    public static final int DEFAULT_ROW_GROUP_SIZE = 8192;
+
+    private final DataOutputStream out_;
+
+    private final int rowGroupSize_;
+
+    // dictionaries, value -> code
+    private final Map<String, Integer> asinDict_ = new LinkedHashMap<>();
+    private final Map<String, Integer> modelDict_ = new LinkedHashMap<>();
+
+    // current row group
+    private final List<Review> rows_ = new ArrayList<>();
+    private final List<String> rowAsins_ = new ArrayList<>();
+
+    // rows and column chunks (offset, length) of the written row groups
+    private final List<Integer> groupRows_ = new ArrayList<>();
+    private final List<long[]> groupChunks_ = new ArrayList<>();
+
+    // bytes written so far
+    private long offset_ = 0;
+
+    private boolean closed_ = false;
+
+    public ColumnarArchiveWriter(File file) throws IOException {
+        this(file, DEFAULT_ROW_GROUP_SIZE);
+    }
+
+    public ColumnarArchiveWriter(File file, int rowGroupSize) throws IOException {
+        this.out_ = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        this.rowGroupSize_ = rowGroupSize;
+
+        out_.writeInt(MAGIC);
+        out_.writeInt(VERSION);
+        offset_ = 8;
+    }
+
+    @Override
+    public synchronized void accept(String asin, int nPage, Collection<Review> reviews) throws IOException {
+        for (Review review : reviews)
+            write(asin, review);
+    }
+
+    /**
+     * Add one review, flushed with its row group
+     * @param asin              Amazon ASIN of the product
+     * @param review            Review to be exported
+     * @throws IOException
+     */
+    public synchronized void write(String asin, Review review) throws IOException {
+        rows_.add(review);
+        rowAsins_.add(asin);
+
+        if (rows_.size() >= rowGroupSize_)
+            flushRowGroup();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed_)
+            return;
+        closed_ = true;
+
+        try {
+            if (!rows_.isEmpty())
+                flushRowGroup();
+
+            // footer
+            long footer = offset_;
+            writeDictionary(asinDict_);
+            writeDictionary(modelDict_);
+            out_.writeInt(groupRows_.size());
+            for (int g = 0; g < groupRows_.size(); ++g) {
+                out_.writeInt(groupRows_.get(g));
+                long[] chunks = groupChunks_.get(g);
+                for (int c = 0; c < Column.values().length; ++c) {
+                    out_.writeLong(chunks[2 * c]);
+                    out_.writeInt((int) chunks[2 * c + 1]);
+                }
+            }
+            out_.writeLong(footer);
+            out_.writeInt(MAGIC);
+        } finally {
+            out_.close();
+        }
+    }
+
+    // write each column of the buffered rows
+    private void flushRowGroup() throws IOException {
+        int n = rows_.size();
+        long[] chunks = new long[2 * Column.values().length];
+
+        for (Column column : Column.values()) {
+            byte[] chunk = encode(column);
+            out_.write(chunk);
+
+            chunks[2 * column.ordinal()] = offset_;
+            chunks[2 * column.ordinal() + 1] = chunk.length;
+            offset_ += chunk.length;
+        }
+
+        groupRows_.add(n);
+        groupChunks_.add(chunks);
+        rows_.clear();
+        rowAsins_.clear();
+    }
+
+    private byte[] encode(Column column) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        if (column == Column.NAME || column == Column.TITLE || column == Column.TEXT) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+                for (Review review : rows_) {
+                    String value = column == Column.NAME ? review.getName()
+                            : column == Column.TITLE ? review.getTitle() : review.getText();
+                    if (value == null) {
+                        data.writeInt(-1);
+                    } else {
+                        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                        data.writeInt(utf8.length);
+                        data.write(utf8);
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+            return bytes.toByteArray();
+        }
+
+        DataOutputStream data = new DataOutputStream(bytes);
+        for (int i = 0; i < rows_.size(); ++i) {
+            Review review = rows_.get(i);
+            switch (column) {
+                case ASIN:
+                    data.writeInt(code(asinDict_, rowAsins_.get(i)));
+                    break;
+                case MODEL_NUM:
+                    data.writeInt(code(modelDict_, review.getModelNum()));
+                    break;
+                case DATE:
+                    data.writeInt(review.getDate() == null ? NO_DATE : toEpochDay(review.getDate()));
+                    break;
+                case RATE:
+                    data.writeByte(review.getRate() == null ? 0 : review.getRate());
+                    break;
+                case HELP_RATIO:
+                    data.writeFloat(review.getHelpRatio() == null ? Float.NaN : review.getHelpRatio());
+                    break;
+                default:
+                    break;
+            }
+        }
+        data.flush();
+        return bytes.toByteArray();
+    }
+
+    // dates are the start of a day in default time zone
+    private static int toEpochDay(Date date) {
+        return (int) Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    // code of a value, -1 for null
+    private static int code(Map<String, Integer> dict, String value) {
+        if (value == null)
+            return -1;
+
+        Integer code = dict.get(value);
+        if (code == null) {
+            code = dict.size();
+            dict.put(value, code);
+        }
+        return code;
+    }
+
+    private void writeDictionary(Map<String, Integer> dict) throws IOException {
+        out_.writeInt(dict.size());
+        for (String value : dict.keySet())
+            out_.writeUTF(value);
+    }
+}
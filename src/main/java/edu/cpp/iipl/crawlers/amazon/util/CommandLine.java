@@ -1,20 +1,173 @@
 package edu.cpp.iipl.crawlers.amazon.util;
 
+import edu.cpp.iipl.crawlers.amazon.core.BatchScheduler;
+import edu.cpp.iipl.crawlers.amazon.core.CrawlEvents;
+import edu.cpp.iipl.crawlers.amazon.core.CrawlMetrics;
+import edu.cpp.iipl.crawlers.amazon.core.CrawlPipeline;
+import edu.cpp.iipl.crawlers.amazon.core.CrawlStats;
+import edu.cpp.iipl.crawlers.amazon.core.Crawler;
+import edu.cpp.iipl.crawlers.amazon.core.FetchEngine;
+import edu.cpp.iipl.crawlers.amazon.core.FetchLimiter;
+import edu.cpp.iipl.crawlers.amazon.core.FetchPermits;
+import edu.cpp.iipl.crawlers.amazon.core.FetchTransport;
+import edu.cpp.iipl.crawlers.amazon.core.HttpClientTransport;
+import edu.cpp.iipl.crawlers.amazon.core.IncompleteCrawlException;
+import edu.cpp.iipl.crawlers.amazon.core.JsoupTransport;
+import edu.cpp.iipl.crawlers.amazon.core.PageCache;
 import edu.cpp.iipl.crawlers.amazon.core.ProductCrawler;
 import edu.cpp.iipl.crawlers.amazon.core.ReviewCrawler;
+import edu.cpp.iipl.crawlers.amazon.core.RetryPolicy;
+import edu.cpp.iipl.crawlers.amazon.core.ReviewSink;
 import edu.cpp.iipl.crawlers.amazon.model.Product;
 import edu.cpp.iipl.crawlers.amazon.model.Review;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by xing on 12/24/15.
  */
 public class CommandLine {
 
+    // options given on the command line
+    static class Options {
+        boolean enableVerbose = false;
+        boolean enableMT = false;
+        boolean enableAsync = false;
+        boolean batchProcess = false;
+        boolean incremental = false;
+        boolean resume = false;
+        int numOfProducts = 1;
+        int maxFetches = 0;
+        int hostRate = 0;
+        int hostFetches = 0;
+        int maxRetries = RetryPolicy.DEFAULT_MAX_RETRIES;
+        int numOfThreads = FetchEngine.DEFAULT_THREADS;
+        int queueSize = FetchEngine.DEFAULT_QUEUE_SIZE;
+        String baseUrl = Crawler.DEFAULT_BASE_URL;
+        String output = OUTPUT_FILES;
+        int syncEvery = ReviewSegmentWriter.DEFAULT_SYNC_EVERY;
+        String transport = TRANSPORT_HTTP;
+        int timeoutSeconds = HttpClientTransport.DEFAULT_READ_TIMEOUT_MILLIS / 1000;
+        String archive = null;
+        String cacheDir = null;
+        int cacheMegabytes = (int) (PageCache.DEFAULT_MAX_BYTES / (1024 * 1024));
+        int cacheMinutes = (int) (PageCache.DEFAULT_TTL_MILLIS / (60 * 1000));
+        int reportSeconds = 0;
+        String metricsCsv = null;
+        long startOffset = 0;
+        int daemonPort = -1;
+    }
+
+    // default time between two reports of the metrics written to a CSV file
+    private static final int DEFAULT_REPORT_SECONDS = 10;
+
+    // one file per review
+    private static final String OUTPUT_FILES = "files";
+
+    // one append-only segment per product
+    private static final String OUTPUT_SEGMENT = "segment";
+
+    // pooled keep-alive connections, HTTP/2 and compressed transfer
+    private static final String TRANSPORT_HTTP = "http";
+
+    // one Jsoup connection per page
+    private static final String TRANSPORT_JSOUP = "jsoup";
+
+    // components shared by all the crawlers of a run
+    static class Shared {
+        final Options opts;
+        final CrawlStats stats = new CrawlStats();
+        final CrawlMetrics metrics = new CrawlMetrics(stats);
+        final FetchPermits fetchPermits;
+        final FetchLimiter fetchLimiter;
+        final RetryPolicy retryPolicy = new RetryPolicy();
+        final CrawlPipeline pipeline;
+        final FetchTransport transport;
+        ColumnarArchiveWriter archive = null;
+        CheckpointJournal journal = null;
+        PageCache pageCache = null;
+        MetricsReporter reporter = null;
+
+        Shared(Options opts) {
+            this.opts = opts;
+            this.fetchPermits = opts.maxFetches > 0 ? new FetchPermits(opts.maxFetches) : null;
+            this.fetchLimiter = opts.hostRate > 0 || opts.hostFetches > 0
+                    ? new FetchLimiter(opts.hostRate, opts.hostFetches) : null;
+            this.retryPolicy.setMaxRetries(opts.maxRetries);
+            this.pipeline = new CrawlPipeline(new FetchEngine(opts.numOfThreads, opts.queueSize),
+                    Runtime.getRuntime().availableProcessors(),
+                    CrawlPipeline.DEFAULT_PERSIST_THREADS, opts.queueSize);
+            this.transport = TRANSPORT_JSOUP.equals(opts.transport)
+                    ? new JsoupTransport(opts.timeoutSeconds * 1000)
+                    : new HttpClientTransport(HttpClientTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                            opts.timeoutSeconds * 1000);
+        }
+
+        // apply the options and shared components to a crawler
+        private void configure(Crawler crawler, boolean enableVerbose) {
+            crawler.setFetchPermits_(fetchPermits);
+            crawler.setFetchLimiter_(fetchLimiter);
+            crawler.setRetryPolicy_(retryPolicy);
+            crawler.setStats_(stats);
+            crawler.setAsyncFetch_(opts.enableAsync);
+            crawler.setBaseUrl_(opts.baseUrl);
+            crawler.setPageCache_(pageCache);
+            crawler.setTransport_(transport);
+            if (enableVerbose)
+                crawler.enableVerbose();
+        }
+
+        ProductCrawler newProductCrawler(boolean enableVerbose) {
+            ProductCrawler pc = new ProductCrawler();
+            configure(pc, enableVerbose);
+            return pc;
+        }
+
+        ReviewCrawler newReviewCrawler(boolean enableVerbose) {
+            ReviewCrawler rc = new ReviewCrawler();
+            configure(rc, enableVerbose);
+            rc.setFetchEngine_(pipeline.getFetch());
+            rc.setPipeline_(pipeline);
+            return rc;
+        }
+
+        // open the columnar archive and the page cache if any, then expose and report the metrics
+        void open() throws IOException {
+            if (opts.archive != null)
+                archive = new ColumnarArchiveWriter(new File(opts.archive));
+            if (opts.cacheDir != null)
+                pageCache = new PageCache(new File(opts.cacheDir),
+                        opts.cacheMegabytes * 1024L * 1024, opts.cacheMinutes * 60L * 1000);
+
+            metrics.setPipeline(pipeline);
+            metrics.setPageCache(pageCache);
+            metrics.setRetryPolicy(retryPolicy);
+            metrics.setFetchLimiter(fetchLimiter);
+            metrics.register();
+            if (opts.reportSeconds > 0 || opts.metricsCsv != null)
+                reporter = new MetricsReporter(metrics,
+                        opts.reportSeconds > 0 ? opts.reportSeconds : DEFAULT_REPORT_SECONDS,
+                        opts.reportSeconds > 0 ? System.out : null,
+                        opts.metricsCsv != null ? new File(opts.metricsCsv) : null);
+        }
+
+        void shutdown() throws IOException {
+            pipeline.shutdown();
+            Logger.flush(1000);
+            if (reporter != null)
+                reporter.close();
+            metrics.unregister();
+            if (archive != null)
+                archive.close();
+        }
+    }
+
     // display help information
     private static void displayHelp() {
         StringBuilder sb = new StringBuilder();
@@ -24,16 +177,43 @@ public class CommandLine {
         sb.append("  -h        Display help information\n");
         sb.append("  -m        Utilize multi-threading\n");
         sb.append("  -v        Produce verbose output. Normally for debugging.\n");
+        sb.append("  -a        Fetch pages asynchronously, without blocking a thread per page\n");
+        sb.append("  -b        Batch mode, <file> is used instead of <ASIN>\n");
+        sb.append("  -r        Resume the batch recorded in the checkpoint journal of <dir>\n");
+        sb.append("  -i        Incremental, only crawl the reviews posted since the last crawl in <dir>\n");
+        sb.append("  -p <N>    Number of products crawled in parallel in batch mode (default 1)\n");
+        sb.append("  -c <N>    Maximum number of concurrent page fetches (default no limit)\n");
+        sb.append("  -g <N>    Maximum requests per second to each host (default no limit)\n");
+        sb.append("  -k <N>    Maximum concurrent fetches from each host, adapted to its health (default no limit)\n");
+        sb.append("  -y <N>    Maximum attempts of a page (default 10)\n");
+        sb.append("  -t <N>    Number of fetch threads used with -m (default 8)\n");
+        sb.append("  -q <N>    Queue size of each fetch/parse/persist stage used with -m (default 64)\n");
+        sb.append("  -u <URL>  Site to be crawled (default http://www.amazon.com)\n");
+        sb.append("  -o <fmt>  Output of reviews: files (one file per review, default) or segment (one file per product)\n");
+        sb.append("  -s <N>    Number of reviews between two fsyncs of a segment (default 1000, 0 never)\n");
+        sb.append("  -n <name> Fetch transport: http (pooled keep-alive, HTTP/2, gzip, default) or jsoup\n");
+        sb.append("  -w <sec>  Timeout of each page request (default 30)\n");
+        sb.append("  -x <file> Also export all the reviews into a compressed columnar archive\n");
+        sb.append("  -e <dir>  Cache fetched pages in <dir>, also for later runs\n");
+        sb.append("  -l <MB>   Disk budget of the page cache (default 1024)\n");
+        sb.append("  -f <min>  Age under which a cached page is used without revalidation (default 1440)\n");
+        sb.append("  -d <sec>  Print a one line report of the metrics every <sec> seconds\n");
+        sb.append("  -j <file> Write the metrics to a CSV file, every 10 seconds unless -d is given\n");
+        sb.append("  -F <N>    Start reading the batch <file> at byte offset <N>, as printed by an interrupted run\n");
+        sb.append("  -z <port> Daemon mode, take crawl jobs on http://127.0.0.1:<port>, only <dir> is given\n");
         sb.append("Input:\n");
         sb.append("  <ASIN>    Amazon ASIN of the product\n");
         sb.append("  <file>    File containing list of ASINs in \"ASIN::product name\" format\n");
         sb.append("  <dir>     Directory for crawled results\n");
         sb.append("Example: AmazonCrawler -mv B0083FTVB8 A_Random_Folder\n");
+        sb.append("Daemon:  AmazonCrawler -m -p 4 -z 8700 A_Random_Folder\n");
+        sb.append("         curl -H \"X-Crawler-Token: $(cat A_Random_Folder/daemon.token)\" \\\n");
+        sb.append("              --data-binary @asins.txt http://127.0.0.1:8700/jobs\n");
         System.out.println(sb.toString());
     }
 
     // check valid ASIN
-    private static boolean validAsin(String asin) {
+    static boolean validAsin(String asin) {
         return asin != null
                 && asin.length() == 10                                  // ASIN length is always 10 characters
                 && asin.charAt(0) != '-'                                // first char can not be '-' (non-options)
@@ -90,7 +270,7 @@ public class CommandLine {
     }
 
     // crawl a single product
-    private static long crawlSingleProduct(String asin, String dir, boolean enableVerbose, boolean enableMT)
+    private static long crawlSingleProduct(String asin, String dir, Shared shared)
             throws IOException {
         // check input
         if (!inputCheck(asin, dir)) {
@@ -100,19 +280,27 @@ public class CommandLine {
 
         // prepare and send crawlers
         long startCrawl = System.currentTimeMillis();
-        ProductCrawler pc = new ProductCrawler();
-        ReviewCrawler rc = new ReviewCrawler();
-        if (enableVerbose) {
-            pc.enableVerbose();
-            rc.enableVerbose();
+        ProductCrawler pc = shared.newProductCrawler(shared.opts.enableVerbose);
+        ReviewCrawler rc = shared.newReviewCrawler(shared.opts.enableVerbose);
+        try {
+            crawlAndStore(asin, dir, pc, rc, shared, shared.opts.incremental);
+        } catch (IncompleteCrawlException e) {
+            // the reviews obtained are stored, product.txt is not
+            System.out.println("Incomplete: " + e.getMessage());
         }
+        shared.stats.addProduct();
+
+        return System.currentTimeMillis() - startCrawl;
+    }
+
+    // crawl a product with the given crawlers and store the results, returns number of reviews,
+    // throws IncompleteCrawlException if review pages failed, without writing product.txt
+    static int crawlAndStore(String asin, String dir, ProductCrawler pc, ReviewCrawler rc, Shared shared,
+                             boolean incremental) throws IOException {
+        Options opts = shared.opts;
         Map<String, Product> productMap = pc.crawlProduct(asin);
-        Map<String, Review> reviewMap;
-        if (enableMT)
-            reviewMap = rc.crawlReviewsMT(productMap.get(asin));
-        else
-            reviewMap = rc.crawlReviews(asin);
-        long endCrawl = System.currentTimeMillis();
+        if (productMap.isEmpty())
+            throw new IncompleteCrawlException(asin);
 
         // process and store data
         // 1. create destination folder
@@ -120,76 +308,300 @@ public class CommandLine {
         if (!dst.exists())
             dst.mkdir();
         // 2. create base folder (product folder)
-        String basePath = dst.getCanonicalPath() + "/" + asin;
+        final String basePath = dst.getCanonicalPath() + "/" + asin;
         File base = new File(basePath);
         if (!base.exists())
             base.mkdir();
-        // 3. create product file
-        if (!productMap.isEmpty()) {
-            FileWriter fw = new FileWriter(basePath + "/product.txt", false);
-            try (BufferedWriter bw = new BufferedWriter(fw)) {
-                bw.write(formatProduct(productMap.get(asin)));
-            }
-            fw.close();
+        // 3. load the state of the last crawl
+        Product product = productMap.get(asin);
+        CrawlState state = incremental ? CrawlState.load(base) : null;
+        if (state != null && state.isUnchanged(product.getNumOfReviewsOnPage())) {
+            writeProduct(basePath, product);
+            if (shared.stats != null)
+                shared.stats.addUnchangedProduct();
+            return 0;
         }
-        // 4. create review files
-        if (!reviewMap.isEmpty()) {
-            for (Map.Entry<String, Review> review : reviewMap.entrySet()) {
-                FileWriter fw = new FileWriter(basePath + "/review."
-                        + review.getKey() + ".txt", false);
-                try (BufferedWriter bw = new BufferedWriter(fw)) {
-                    bw.write(formatReview(review.getValue()));
+        // resume from the first page not stored by an interrupted batch
+        int firstPage = shared.journal != null ? shared.journal.firstMissingPage(asin) : 1;
+        // only the new reviews if crawled before, their pages sorted by most recent are not journaled
+        Set<String> knownIds = firstPage == 1 && state != null && !state.getKnownIds().isEmpty()
+                ? state.getKnownIds() : null;
+        CheckpointJournal journal = knownIds == null ? shared.journal : null;
+        // 4. append reviews to the segment of the product as soon as each page is parsed
+        int numOfReviews;
+        try {
+            if (OUTPUT_SEGMENT.equals(opts.output)) {
+                try (ReviewSegmentWriter writer = new ReviewSegmentWriter(base, opts.syncEvery)) {
+                    numOfReviews = crawlReviews(asin, product, rc, timed(
+                            withJournal(withArchive(writer, product, shared.archive), writer, journal), shared.stats),
+                            knownIds, firstPage, opts);
                 }
-                fw.close();
+            } else {
+                numOfReviews = crawlReviews(asin, product, rc, timed(
+                        withJournal(withArchive(fileSink(basePath), product, shared.archive), null, journal), shared.stats),
+                        knownIds, firstPage, opts);
             }
+        } catch (IncompleteCrawlException e) {
+            // the new reviews stored would pass for the last crawl and hide the ones missed:
+            // the next crawl of the product fetches all its pages
+            if (knownIds != null)
+                new File(base, CrawlState.PRODUCT_FILE).delete();
+            throw e;
         }
+        // the reviews stored, including the pages of a resumed product stored before and
+        // excluding the ones fetched again past the first missing page
+        if (journal != null)
+            numOfReviews = journal.getNumOfStoredReviews(asin);
+        // 5. create product file last, so that its number of reviews is only recorded along with them
+        writeProduct(basePath, product);
+
+        return numOfReviews;
+    }
 
-        return endCrawl - startCrawl;
+    // store product info
+    private static void writeProduct(String basePath, Product product) throws IOException {
+        FileWriter fw = new FileWriter(basePath + "/" + CrawlState.PRODUCT_FILE, false);
+        try (BufferedWriter bw = new BufferedWriter(fw)) {
+            bw.write(formatProduct(product));
+        }
+        fw.close();
     }
 
-    private static long crawlBatchProducts(String filePath, String dir, boolean enableMT)
+    // sink creating one file per review
+    private static ReviewSink fileSink(final String basePath) {
+        return new ReviewSink() {
+            @Override
+            public void accept(String asin, int nPage, Collection<Review> reviews) throws IOException {
+                for (Review review : reviews) {
+                    FileWriter fw = new FileWriter(basePath + "/review."
+                            + review.getName() + ".txt", false);
+                    try (BufferedWriter bw = new BufferedWriter(fw)) {
+                        bw.write(formatReview(review));
+                    }
+                    fw.close();
+                }
+            }
+        };
+    }
+
+    // also export the reviews into the archive, with the model number of the product
+    private static ReviewSink withArchive(final ReviewSink sink, Product product,
+                                          final ColumnarArchiveWriter archive) {
+        if (archive == null)
+            return sink;
+
+        final String modelNum = product != null ? product.getModelNum() : null;
+        return new ReviewSink() {
+            @Override
+            public void accept(String asin, int nPage, Collection<Review> reviews) throws IOException {
+                for (Review review : reviews)
+                    review.setModelNum(modelNum);
+                sink.accept(asin, nPage, reviews);
+                archive.accept(asin, nPage, reviews);
+            }
+        };
+    }
+
+    // record each page in the journal once flushed out of the storage, null when written through.
+    // Pages recorded already, past the first missing one of a resumed product, are not stored twice
+    // and their reviews are counted from the journal
+    private static ReviewSink withJournal(final ReviewSink sink, final Flushable storage,
+                                          final CheckpointJournal journal) {
+        if (journal == null)
+            return sink;
+
+        return new ReviewSink() {
+            @Override
+            public void accept(String asin, int nPage, Collection<Review> reviews) throws IOException {
+                if (journal.isPageDone(asin, nPage))
+                    return;
+
+                sink.accept(asin, nPage, reviews);
+                if (storage != null)
+                    storage.flush();
+                journal.pageDone(asin, nPage, reviews.size());
+            }
+        };
+    }
+
+    // record the time taken to store the reviews of each page, also as a flight recorder event
+    private static ReviewSink timed(final ReviewSink sink, final CrawlStats stats) {
+        return new ReviewSink() {
+            @Override
+            public void accept(String asin, int nPage, Collection<Review> reviews) throws IOException {
+                long start = System.nanoTime();
+                CrawlEvents.PersistEvent event = new CrawlEvents.PersistEvent();
+                event.begin();
+                String outcome = "ok";
+                try {
+                    sink.accept(asin, nPage, reviews);
+                } catch (IOException | RuntimeException e) {
+                    outcome = e.getClass().getSimpleName();
+                    throw e;
+                } finally {
+                    stats.getWriteLatency().recordSince(start);
+
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.asin = asin;
+                        event.page = nPage;
+                        event.reviews = reviews.size();
+                        event.outcome = outcome;
+                        event.commit();
+                    }
+                }
+            }
+        };
+    }
+
+    // crawl the reviews of a product into the sink, from the first page missing,
+    // or only the ones not known if crawled before
+    private static int crawlReviews(String asin, Product product, ReviewCrawler rc, ReviewSink sink,
+                                    Set<String> knownIds, int firstPage, Options opts)
             throws IOException {
+        if (knownIds != null)
+            return rc.crawlNewReviews(asin, knownIds, sink);
+        else if (opts.enableMT)
+            return rc.crawlReviewsMT(product, firstPage, sink);
+        else
+            return rc.crawlReviews(asin, firstPage, sink);
+    }
+
+    private static long crawlBatchProducts(String filePath, final String dir, final Shared shared)
+            throws IOException {
+        final Options opts = shared.opts;
+
         if (!new File(filePath).exists()) {
             System.out.println("The input file (" + filePath + ") does not exist. Please check it.");
             return 0;
         }
 
-        // prepare the task list (products to be crawled)
-        List<String[]> taskList = new ArrayList<>();
-        FileReader fr = new FileReader(filePath);
-        try (BufferedReader br = new BufferedReader(fr)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] task = line.trim().split("::");
-                if (validAsin(task[0]))
-                    taskList.add(task);
-            }
-        }
-        fr.close();
-        System.out.println("Total " + taskList.size() + " products to be crawled");
+        // progress of the batch, skip the products done before
+        File dst = new File(dir);
+        if (!dst.exists())
+            dst.mkdirs();
+        final CheckpointJournal journal = new CheckpointJournal(dst, opts.resume);
+        shared.journal = journal;
+
+        // products are read as slots free up, the file is never loaded at once
+        final AsinTaskReader reader = new AsinTaskReader(new File(filePath), opts.startOffset);
+        System.out.println("Crawling the products of " + filePath
+                + (opts.startOffset > 0 ? " from byte " + opts.startOffset : ""));
 
         // disable log for batch mode
         System.out.println("Log disabled in batch mode");
 
+        // crawlers are thread-safe, thus shared by all the products
+        final ProductCrawler pc = shared.newProductCrawler(false);
+        final ReviewCrawler rc = shared.newReviewCrawler(false);
 
-        long start = System.currentTimeMillis();
-        for (int i = 0; i < taskList.size(); ++i) {
-            String asin = taskList.get(i)[0];
-            String productName = taskList.get(i)[1];
+        BatchScheduler scheduler = new BatchScheduler(opts.numOfProducts);
+        scheduler.setStats(shared.stats);
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        int doneBefore = 0;
 
-            System.out.print("Crawling " + (i + 1) + " of " + taskList.size() +
-                                " product: [" + asin + "] " + productName + "...");
+        // lines of the products in flight or failed, and end of the lines submitted:
+        // a rerun from the smallest of them crawls every product not done yet
+        final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+        final AtomicLong submitted = new AtomicLong(reader.getOffset());
 
-            // crawl product and reviews
-            long timeCost = crawlSingleProduct(asin, dir, false, enableMT);
+        long start = System.currentTimeMillis();
+        try {
+            String[] task;
+            while ((task = reader.next()) != null) {
+                if (journal.isDone(task[0])) {
+                    ++doneBefore;
+                    submitted.set(reader.getOffset());
+                    continue;
+                }
 
-            System.out.println(" Done (" + (timeCost / 1000) + "s)");
+                final String productName = task[1];
+                final long lineOffset = reader.getLineOffset();
+                inFlight.add(lineOffset);
+                submitted.set(reader.getOffset());
+
+                scheduler.submit(task[0], new BatchScheduler.ProductTask() {
+                    @Override
+                    public int crawl(String asin) throws Exception {
+                        int numOfReviews = crawlAndStore(asin, dir, pc, rc, shared, opts.incremental);
+                        journal.productDone(asin, numOfReviews);
+                        return numOfReviews;
+                    }
+                }, new BatchScheduler.ProductListener() {
+                    @Override
+                    public void onProductDone(String asin, int numOfReviews, long timeCost, Exception error) {
+                        // a failed product is kept, so that the rerun offset never skips it
+                        if (error == null)
+                            inFlight.remove(lineOffset);
+                        else
+                            failed.incrementAndGet();
+                        Long first = inFlight.isEmpty() ? null : inFlight.first();
+                        long resumeAt = first != null ? Math.min(first, submitted.get()) : submitted.get();
+
+                        String status = error == null ? "Done" : "Failed (" + error.getMessage() + ")";
+                        System.out.println("Crawled " + done.incrementAndGet() + " products ("
+                                + String.format("%.1f", 100.0 * resumeAt / Math.max(reader.getSize(), 1))
+                                + "% of the file, resume with -F " + resumeAt + "): ["
+                                + asin + "] " + productName + "... " + status
+                                + " " + numOfReviews + " reviews (" + (timeCost / 1000) + "s)"
+                                + (shared.fetchLimiter != null ? " [" + shared.fetchLimiter + "]" : ""));
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // stop submitting, the products submitted are still waited for
+            Thread.currentThread().interrupt();
+        } finally {
+            reader.close();
         }
+        scheduler.shutdown();
+        journal.close();
         long end = System.currentTimeMillis();
 
+        if (doneBefore > 0)
+            System.out.println(doneBefore + " products skipped, done before");
+        if (failed.get() > 0)
+            System.out.println(failed.get() + " products failed, rerun with -r -F "
+                    + (inFlight.isEmpty() ? submitted.get() : Math.min(inFlight.first(), submitted.get()))
+                    + " to crawl them");
+
+        System.out.println("Summary: " + shared.stats.summary());
+        if (opts.enableMT && !opts.enableAsync)
+            System.out.println("Stages: " + shared.pipeline);
+
         return end - start;
     }
 
+    // parse the string value of an option
+    private static String parseString(String[] args, int i) {
+        return i < args.length ? args[i] : null;
+    }
+
+    // parse the numeric value of an option
+    private static int parseNumber(String[] args, int i) {
+        if (i >= args.length)
+            return -1;
+
+        try {
+            return Integer.parseInt(args[i]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // parse the numeric value of an option which may exceed an int, e.g. a file offset
+    private static long parseLargeNumber(String[] args, int i) {
+        if (i >= args.length)
+            return -1;
+
+        try {
+            return Long.parseLong(args[i]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
 
     /**
      * Taking command line input to initiate Amazon Crawler.
@@ -198,18 +610,51 @@ public class CommandLine {
      *  -h                  Display help information
      *  -m                  Utilize multi-threading
      *  -v                  Produce verbose output. Normally for debugging.
+     *  -a                  Fetch pages asynchronously, without blocking a thread per page
+     *  -b                  Batch mode
+     *  -r                  Resume the batch recorded in the checkpoint journal
+     *  -i                  Incremental, only crawl the reviews posted since the last crawl
+     *  -p <N>              Number of products crawled in parallel in batch mode
+     *  -c <N>              Maximum number of concurrent page fetches
+     *  -g <N>              Maximum requests per second to each host
+     *  -k <N>              Maximum concurrent fetches from each host, adapted to its health
+     *  -y <N>              Maximum attempts of a page
+     *  -t <N>              Number of fetch threads used with -m
+     *  -q <N>              Queue size of each fetch/parse/persist stage used with -m
+     *  -u <URL>            Site to be crawled
+     *  -o <fmt>            Output of reviews: files or segment
+     *  -s <N>              Number of reviews between two fsyncs of a segment
+     *  -n <name>           Fetch transport: http or jsoup
+     *  -w <sec>            Timeout of each page request
+     *  -x <file>           Also export all the reviews into a compressed columnar archive
+     *  -e <dir>            Cache fetched pages in the directory
+     *  -l <MB>             Disk budget of the page cache
+     *  -f <min>            Age under which a cached page is used without revalidation
+     *  -d <sec>            Print a one line report of the metrics periodically
+     *  -j <file>           Write the metrics to a CSV file periodically
+     *  -F <N>              Start reading the batch file at a byte offset
+     *  -z <port>           Daemon mode, take crawl jobs on a local HTTP endpoint
      *
      * @param args
      */
     public static void main(String[] args) throws IOException {
+        run(args);
+    }
+
+    /**
+     * Same as main, but returns the statistics of the run so that it can
+     * be driven by a benchmark harness
+     * @param args              Command line arguments
+     * @return                  Statistics of the run, null if nothing was crawled
+     * @throws IOException
+     */
+    public static CrawlStats run(String[] args) throws IOException {
         if (args.length == 0) {
             displayHelp();
-            return;
+            return null;
         }
 
-        boolean enableVerbose = false;
-        boolean enableMT = false;
-        boolean batchProcess = false;
+        Options opts = new Options();
 
         String param1 = null;
         String dir = null;
@@ -217,42 +662,231 @@ public class CommandLine {
         // parse input and options
         for (int i = 0; i < args.length; ++i) {
             if (args[i].charAt(0) == '-') {
+                // options taking a value consume the following argument
+                int numOfValues = 0;
                 for (int j = 1; j < args[i].length(); ++j) {
                     switch (args[i].charAt(j)) {
                         case 'm':
-                            enableMT = true;
+                            opts.enableMT = true;
                             break;
                         case 'v':
-                            enableVerbose = true;
+                            opts.enableVerbose = true;
+                            break;
+                        case 'a':
+                            opts.enableAsync = true;
                             break;
                         case 'b':
-                            batchProcess = true;
+                            opts.batchProcess = true;
+                            break;
+                        case 'i':
+                            opts.incremental = true;
+                            break;
+                        case 'r':
+                            opts.resume = true;
+                            break;
+                        case 'p':
+                            opts.numOfProducts = parseNumber(args, i + (++numOfValues));
+                            if (opts.numOfProducts < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'c':
+                            opts.maxFetches = parseNumber(args, i + (++numOfValues));
+                            if (opts.maxFetches < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'g':
+                            opts.hostRate = parseNumber(args, i + (++numOfValues));
+                            if (opts.hostRate < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'k':
+                            opts.hostFetches = parseNumber(args, i + (++numOfValues));
+                            if (opts.hostFetches < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'y':
+                            opts.maxRetries = parseNumber(args, i + (++numOfValues));
+                            if (opts.maxRetries < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 't':
+                            opts.numOfThreads = parseNumber(args, i + (++numOfValues));
+                            if (opts.numOfThreads < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'q':
+                            opts.queueSize = parseNumber(args, i + (++numOfValues));
+                            if (opts.queueSize < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'u':
+                            opts.baseUrl = parseString(args, i + (++numOfValues));
+                            if (opts.baseUrl == null) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'o':
+                            opts.output = parseString(args, i + (++numOfValues));
+                            if (!OUTPUT_FILES.equals(opts.output) && !OUTPUT_SEGMENT.equals(opts.output)) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 's':
+                            opts.syncEvery = parseNumber(args, i + (++numOfValues));
+                            if (opts.syncEvery < 0) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'x':
+                            opts.archive = parseString(args, i + (++numOfValues));
+                            if (opts.archive == null) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'n':
+                            opts.transport = parseString(args, i + (++numOfValues));
+                            if (!TRANSPORT_HTTP.equals(opts.transport) && !TRANSPORT_JSOUP.equals(opts.transport)) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'w':
+                            opts.timeoutSeconds = parseNumber(args, i + (++numOfValues));
+                            if (opts.timeoutSeconds < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'e':
+                            opts.cacheDir = parseString(args, i + (++numOfValues));
+                            if (opts.cacheDir == null) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'l':
+                            opts.cacheMegabytes = parseNumber(args, i + (++numOfValues));
+                            if (opts.cacheMegabytes < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'f':
+                            opts.cacheMinutes = parseNumber(args, i + (++numOfValues));
+                            if (opts.cacheMinutes < 0) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'd':
+                            opts.reportSeconds = parseNumber(args, i + (++numOfValues));
+                            if (opts.reportSeconds < 1) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'j':
+                            opts.metricsCsv = parseString(args, i + (++numOfValues));
+                            if (opts.metricsCsv == null) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'F':
+                            opts.startOffset = parseLargeNumber(args, i + (++numOfValues));
+                            if (opts.startOffset < 0) {
+                                displayHelp();
+                                return null;
+                            }
+                            break;
+                        case 'z':
+                            opts.daemonPort = parseNumber(args, i + (++numOfValues));
+                            if (opts.daemonPort < 0 || opts.daemonPort > 65535) {
+                                displayHelp();
+                                return null;
+                            }
                             break;
                         case 'h':
                         default:
                             displayHelp();
-                            return;
+                            return null;
                     }
                 }
+                i += numOfValues;
             } else {
                 param1 = args[i++];
                 if (i < args.length)
                     dir = args[i];
-                else
-                    displayHelp();
             }
         }
 
+        // the daemon only takes the directory
+        if (opts.daemonPort >= 0 && dir == null)
+            dir = param1;
+        if (dir == null) {
+            displayHelp();
+            return null;
+        }
+
+        // shared by all the crawlers
+        Shared shared = new Shared(opts);
+
         long timeCost;
-        if (batchProcess) {
-            // in batch process, param1 is a file
-            timeCost = crawlBatchProducts(param1, dir, enableMT);
-        } else {
-            // in single process, param1 is asin
-            timeCost = crawlSingleProduct(param1, dir, enableVerbose, enableMT);
-            System.out.println("Product and Review information obtained for " + param1);
+        try {
+            shared.open();
+            if (opts.daemonPort >= 0) {
+                // jobs are given over http until shut down
+                long start = System.currentTimeMillis();
+                CrawlDaemon daemon = new CrawlDaemon(shared, dir, opts.daemonPort);
+                daemon.start();
+                System.out.println("Daemon listening on http://127.0.0.1:" + daemon.getPort()
+                        + ", POST ASINs to /jobs, POST /shutdown to stop, with the "
+                        + CrawlDaemon.TOKEN_HEADER + " header in " + daemon.getTokenFile());
+                try {
+                    daemon.awaitShutdown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                System.out.println("Summary: " + shared.stats.summary());
+                timeCost = System.currentTimeMillis() - start;
+            } else if (opts.batchProcess) {
+                // in batch process, param1 is a file
+                timeCost = crawlBatchProducts(param1, dir, shared);
+            } else {
+                // in single process, param1 is asin
+                timeCost = crawlSingleProduct(param1, dir, shared);
+                Logger.flush(1000);
+                System.out.println("Product and Review information obtained for " + param1);
+            }
+        } finally {
+            shared.shutdown();
         }
 
+        if (shared.fetchLimiter != null)
+            System.out.println("Hosts: " + shared.fetchLimiter);
+        System.out.println("Retries: " + shared.retryPolicy.summary());
+        if (shared.pageCache != null)
+            System.out.println("Page cache: " + shared.pageCache.summary());
         System.out.println("Done crawling. Total cost of time: " + (timeCost / 1000) + "s");
+
+        return shared.stats;
     }
 }
@@ -0,0 +1,322 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import edu.cpp.iipl.crawlers.amazon.core.ReviewSink;
+import edu.cpp.iipl.crawlers.amazon.model.Review;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * In-memory store of millions of reviews, for deduplication or analysis,
+ * without one object graph per review. Reviews are rows of parallel
+ * primitive arrays (struct of arrays):
+ *
+ *  - ASIN and model number are dictionary codes
+ *  - date is an epoch day, rate a byte, helpful ratio a float
+ *  - name, title and text are UTF-8 bytes in large shared chunks,
+ *    referenced by chunk and offset
+ *  - permalink is not stored, it is derived from the name
+ *
+ * Reviews are deduplicated by name through an open addressing index.
+ * Missing values read as NO_DATE, 0 (rate), NaN (helpful ratio), -1
+ * (codes) and null. Thread-safe, so that it can be the sink of a crawl,
+ * e.g. ReviewCrawler.crawlReviews(asin, store) for bulk result sets.
+ */
+public class CompactReviewStore implements ReviewSink {
+
+    // epoch day of a missing date
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    // bytes of a chunk of strings, longer strings get a chunk of their own
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    // bytes of the first chunk, doubled up to CHUNK_SIZE, so that the store of one product stays small
+    private static final int FIRST_CHUNK_SIZE = 64 * 1024;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size_ = 0;
+
+    // columns
+    private int[] asinCodes_ = new int[INITIAL_CAPACITY];
+    private int[] modelNumCodes_ = new int[INITIAL_CAPACITY];
+    private int[] epochDays_ = new int[INITIAL_CAPACITY];
+    private byte[] rates_ = new byte[INITIAL_CAPACITY];
+    private float[] helpRatios_ = new float[INITIAL_CAPACITY];
+    private long[] names_ = new long[INITIAL_CAPACITY];
+    private long[] titles_ = new long[INITIAL_CAPACITY];
+    private long[] texts_ = new long[INITIAL_CAPACITY];
+
+    // hash of the name of each row, to skip most comparisons in the index
+    private int[] nameHashes_ = new int[INITIAL_CAPACITY];
+
+    // row + 1 by name hash, 0 for an empty slot, never more than half full
+    private int[] index_ = new int[2 * INITIAL_CAPACITY];
+
+    // dictionaries
+    private final List<String> asins_ = new ArrayList<>();
+    private final Map<String, Integer> asinDict_ = new HashMap<>();
+    private final List<String> modelNums_ = new ArrayList<>();
+    private final Map<String, Integer> modelNumDict_ = new HashMap<>();
+
+    // strings, each one a 4 bytes length followed by its UTF-8 bytes
+    private final List<byte[]> chunks_ = new ArrayList<>();
+    private int chunkUsed_ = 0;
+
+    /**
+     * Add the reviews of one page, skipping those already stored
+     * @param asin              Amazon ASIN of the product
+     * @param nPage             The specific page of the product review
+     * @param reviews           Reviews parsed from the page
+     */
+    @Override
+    public void accept(String asin, int nPage, Collection<Review> reviews) {
+        for (Review review : reviews)
+            add(asin, review);
+    }
+
+    /**
+     * Add a review unless one with the same name is stored
+     * @param asin              Amazon ASIN of the product
+     * @param review            Review with a name
+     * @return                  Row of the review, -(row + 1) of the one already stored
+     */
+    public synchronized int add(String asin, Review review) {
+        String name = review.getName();
+        int hash = mix(name.hashCode());
+        int slot = find(name, hash);
+        if (index_[slot] != 0)
+            return -index_[slot];
+
+        if (size_ == names_.length)
+            grow();
+
+        int row = size_++;
+        asinCodes_[row] = code(asins_, asinDict_, asin);
+        modelNumCodes_[row] = code(modelNums_, modelNumDict_, review.getModelNum());
+        epochDays_[row] = review.getDate() == null ? NO_DATE : toEpochDay(review.getDate());
+        Integer rate = review.getRate();
+        rates_[row] = rate == null || rate < 0 || rate > Byte.MAX_VALUE ? 0 : (byte) (int) rate;
+        helpRatios_[row] = review.getHelpRatio() == null ? Float.NaN : review.getHelpRatio();
+        names_[row] = put(name);
+        titles_[row] = put(review.getTitle());
+        texts_[row] = put(review.getText());
+        nameHashes_[row] = hash;
+
+        index_[slot] = row + 1;
+        if (2 * size_ > index_.length)
+            rehash();
+
+        return row;
+    }
+
+    public synchronized int size() {
+        return size_;
+    }
+
+    public synchronized boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Row of a review
+     * @param name              Name (id) of the review
+     * @return                  Row, -1 if not stored
+     */
+    public synchronized int indexOf(String name) {
+        return index_[find(name, mix(name.hashCode()))] - 1;
+    }
+
+    public synchronized String getAsin(int row) {
+        return decode(asins_, asinCodes_[check(row)]);
+    }
+
+    public synchronized String getModelNum(int row) {
+        return decode(modelNums_, modelNumCodes_[check(row)]);
+    }
+
+    // NO_DATE if missing
+    public synchronized int getEpochDay(int row) {
+        return epochDays_[check(row)];
+    }
+
+    // 0 if missing
+    public synchronized int getRate(int row) {
+        return rates_[check(row)];
+    }
+
+    // NaN if missing
+    public synchronized float getHelpRatio(int row) {
+        return helpRatios_[check(row)];
+    }
+
+    public synchronized String getName(int row) {
+        return get(names_[check(row)]);
+    }
+
+    public synchronized String getTitle(int row) {
+        return get(titles_[check(row)]);
+    }
+
+    public synchronized String getText(int row) {
+        return get(texts_[check(row)]);
+    }
+
+    public synchronized String getPermalink(int row) {
+        return Review.PERMALINK_PREFIX + getName(row);
+    }
+
+    /**
+     * A review as an object, e.g. to be written
+     * @param row               Row of the review
+     * @return                  New Review
+     */
+    public synchronized Review getReview(int row) {
+        Review review = new Review();
+        review.setName(getName(row));
+        review.setTitle(getTitle(row));
+        review.setText(getText(row));
+        review.setModelNum(getModelNum(row));
+        if (epochDays_[row] != NO_DATE)
+            review.setDate(Date.from(LocalDate.ofEpochDay(epochDays_[row])
+                    .atStartOfDay(ZoneId.systemDefault()).toInstant()));
+        if (rates_[row] != 0)
+            review.setRate((int) rates_[row]);
+        if (!Float.isNaN(helpRatios_[row]))
+            review.setHelpRatio(helpRatios_[row]);
+        return review;
+    }
+
+    /**
+     * Number of reviews of each rating, read from the rate column alone
+     * @return                  Index 1 to 5: number of reviews, index 0: no rating
+     */
+    public synchronized long[] rateHistogram() {
+        long[] histogram = new long[6];
+        for (int i = 0; i < size_; ++i) {
+            int rate = rates_[i];
+            ++histogram[rate >= 1 && rate <= 5 ? rate : 0];
+        }
+        return histogram;
+    }
+
+    /**
+     * Approximate heap taken by the columns, chunks and index, dictionaries excluded
+     * @return                  Number of bytes
+     */
+    public synchronized long getFootprintBytes() {
+        long bytes = (long) names_.length * (4 + 4 + 4 + 1 + 4 + 8 + 8 + 8 + 4) + 4L * index_.length;
+        for (byte[] chunk : chunks_)
+            bytes += chunk.length;
+        return bytes;
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= size_)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size_);
+        return row;
+    }
+
+    // slot of the name in the index, or the empty slot where it belongs
+    private int find(String name, int hash) {
+        int mask = index_.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = index_[slot];
+            if (entry == 0)
+                return slot;
+            if (nameHashes_[entry - 1] == hash && name.equals(get(names_[entry - 1])))
+                return slot;
+        }
+    }
+
+    private void rehash() {
+        index_ = new int[2 * index_.length];
+        int mask = index_.length - 1;
+        for (int row = 0; row < size_; ++row) {
+            int slot = nameHashes_[row] & mask;
+            while (index_[slot] != 0)
+                slot = (slot + 1) & mask;
+            index_[slot] = row + 1;
+        }
+    }
+
+    private void grow() {
+        int capacity = names_.length + (names_.length >> 1);
+        asinCodes_ = Arrays.copyOf(asinCodes_, capacity);
+        modelNumCodes_ = Arrays.copyOf(modelNumCodes_, capacity);
+        epochDays_ = Arrays.copyOf(epochDays_, capacity);
+        rates_ = Arrays.copyOf(rates_, capacity);
+        helpRatios_ = Arrays.copyOf(helpRatios_, capacity);
+        names_ = Arrays.copyOf(names_, capacity);
+        titles_ = Arrays.copyOf(titles_, capacity);
+        texts_ = Arrays.copyOf(texts_, capacity);
+        nameHashes_ = Arrays.copyOf(nameHashes_, capacity);
+    }
+
+    // append a string to the chunks, returns chunk << 32 | offset, -1 for null
+    private long put(String value) {
+        if (value == null)
+            return -1;
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + bytes.length;
+        byte[] chunk = chunks_.isEmpty() ? null : chunks_.get(chunks_.size() - 1);
+        if (chunk == null || chunkUsed_ + length > chunk.length) {
+            int size = chunk == null ? FIRST_CHUNK_SIZE : Math.min(CHUNK_SIZE, 2 * chunk.length);
+            chunk = new byte[Math.max(size, length)];
+            chunks_.add(chunk);
+            chunkUsed_ = 0;
+        }
+
+        int offset = chunkUsed_;
+        chunk[offset] = (byte) (bytes.length >>> 24);
+        chunk[offset + 1] = (byte) (bytes.length >>> 16);
+        chunk[offset + 2] = (byte) (bytes.length >>> 8);
+        chunk[offset + 3] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, chunk, offset + 4, bytes.length);
+        chunkUsed_ += length;
+
+        return (long) (chunks_.size() - 1) << 32 | offset;
+    }
+
+    private String get(long ref) {
+        if (ref < 0)
+            return null;
+
+        byte[] chunk = chunks_.get((int) (ref >>> 32));
+        int offset = (int) ref;
+        int length = (chunk[offset] & 0xff) << 24 | (chunk[offset + 1] & 0xff) << 16
+                | (chunk[offset + 2] & 0xff) << 8 | (chunk[offset + 3] & 0xff);
+        return new String(chunk, offset + 4, length, StandardCharsets.UTF_8);
+    }
+
+    // code of a value, -1 for null
+    private static int code(List<String> values, Map<String, Integer> codes, String value) {
+        if (value == null)
+            return -1;
+
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            values.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    private static String decode(List<String> values, int code) {
+        return code < 0 ? null : values.get(code);
+    }
+
+    private static int toEpochDay(Date date) {
+        return (int) Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    // spread the bits of a hash code over the low bits used by the index
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
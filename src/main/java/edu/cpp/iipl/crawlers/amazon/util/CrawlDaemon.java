@@ -0,0 +1,497 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.cpp.iipl.crawlers.amazon.core.BatchScheduler;
+import edu.cpp.iipl.crawlers.amazon.core.CrawlMetrics;
+import edu.cpp.iipl.crawlers.amazon.core.ProductCrawler;
+import edu.cpp.iipl.crawlers.amazon.core.ReviewCrawler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running crawler fed with jobs over a local HTTP endpoint, so that
+ * the crawlers, fetch pool, connections and page cache stay warm between
+ * crawls. Products of all the jobs share the slots of one scheduler.
+ *
+ *  POST /jobs[?mode=incremental|full]  ASINs in the body, one "ASIN[::name]" per line
+ *  GET  /jobs                          Status of the jobs
+ *  GET  /jobs/<id>                     Status of a job
+ *  GET  /status                        Throughput and queues of the daemon
+ *  POST /shutdown                      Stop taking jobs, finish the queued products, and exit
+ *
+ * Responses are JSON. The endpoint is only bound to the loopback interface.
+ * The POST requests must carry the token written to <dir>/daemon.token in
+ * an X-Crawler-Token header, and requests sent by a browser, i.e. with an
+ * Origin header, are refused: a web page cannot start crawls or stop the
+ * daemon. A product submitted again while it is being crawled waits for
+ * that crawl to finish, so that its folder is never written by two crawls.
+ */
+public class CrawlDaemon {
+
+    // finished jobs kept for their status
+    private static final int MAX_FINISHED_JOBS = 1000;
+
+    // file of the token inside the directory of results, and its header
+    public static final String TOKEN_FILE = "daemon.token";
+    public static final String TOKEN_HEADER = "X-Crawler-Token";
+
+    // a crawl request of one or more products
+    private static class Job {
+        final int id;
+        final boolean incremental;
+        final int total;
+        final long submitted = System.currentTimeMillis();
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger reviews = new AtomicInteger();
+        volatile long finished = 0;
+
+        Job(int id, boolean incremental, int total) {
+            this.id = id;
+            this.incremental = incremental;
+            this.total = total;
+        }
+
+        boolean isFinished() {
+            return done.get() + failed.get() >= total;
+        }
+
+        String getState() {
+            if (isFinished())
+                return "done";
+            return started.get() > 0 ? "running" : "queued";
+        }
+    }
+
+    // a product of a job waiting for a slot
+    private static class Item {
+        final Job job;
+        final String asin;
+        final String name;
+
+        Item(Job job, String asin, String name) {
+            this.job = job;
+            this.asin = asin;
+            this.name = name;
+        }
+    }
+
+    // marks the end of the queue
+    private static final Item END = new Item(null, null, null);
+
+    private final CommandLine.Shared shared_;
+
+    private final String dir_;
+
+    private final HttpServer server_;
+
+    private final BatchScheduler scheduler_;
+
+    private final ProductCrawler pc_;
+
+    private final ReviewCrawler rc_;
+
+    // products waiting for a slot of the scheduler
+    private final LinkedBlockingDeque<Item> pending_ = new LinkedBlockingDeque<>();
+
+    // ASINs being crawled, with the products submitted again meanwhile
+    private final Map<String, Deque<Item>> running_ = new HashMap<>();
+
+    // secret of the POST requests
+    private final byte[] token_;
+    private final File tokenFile_;
+
+    // jobs by id, in order of submission
+    private final Map<Integer, Job> jobs_ = new LinkedHashMap<>();
+
+    private final AtomicInteger nextJobId_ = new AtomicInteger();
+
+    private final CountDownLatch shutdownRequested_ = new CountDownLatch(1);
+
+    private volatile boolean accepting_ = true;
+
+    private final Thread dispatcher_;
+
+    /**
+     * @param shared            Components shared by the crawlers
+     * @param dir               Directory for crawled results
+     * @param port              Port of the endpoint on the loopback interface, 0 for any
+     * @throws IOException
+     */
+    CrawlDaemon(CommandLine.Shared shared, String dir, int port) throws IOException {
+        this.shared_ = shared;
+        this.dir_ = dir;
+
+        // crawlers are thread-safe, thus shared by all the jobs
+        this.pc_ = shared.newProductCrawler(shared.opts.enableVerbose);
+        this.rc_ = shared.newReviewCrawler(shared.opts.enableVerbose);
+
+        this.scheduler_ = new BatchScheduler(shared.opts.numOfProducts);
+        this.scheduler_.setStats(shared.stats);
+
+        this.server_ = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 64);
+        this.server_.createContext("/jobs", this::handleJobs);
+        this.server_.createContext("/status", this::handleStatus);
+        this.server_.createContext("/shutdown", this::handleShutdown);
+
+        this.dispatcher_ = new Thread(this::dispatch, "daemon-dispatcher");
+
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random)
+            token.append(String.format("%02x", b));
+        this.token_ = token.toString().getBytes(StandardCharsets.UTF_8);
+
+        File dst = new File(dir);
+        if (!dst.exists())
+            dst.mkdirs();
+        this.tokenFile_ = new File(dst, TOKEN_FILE);
+        writeToken(tokenFile_, token_);
+    }
+
+    // a temporary file created readable by the owner only, then moved in place,
+    // so that the token is never readable by others
+    private static void writeToken(File file, byte[] token) throws IOException {
+        Path tmp = new File(file.getPath() + ".tmp").toPath();
+        Files.deleteIfExists(tmp);
+        try {
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+            Files.createFile(tmp);
+        }
+        Files.write(tmp, token);
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int getPort() {
+        return server_.getAddress().getPort();
+    }
+
+    public File getTokenFile() {
+        return tokenFile_;
+    }
+
+    public void start() {
+        dispatcher_.start();
+        server_.start();
+    }
+
+    /**
+     * Wait for a shutdown request, then for the queued products to be done
+     * @throws InterruptedException
+     */
+    public void awaitShutdown() throws InterruptedException {
+        shutdownRequested_.await();
+
+        server_.stop(1);
+        pending_.put(END);
+        dispatcher_.join();
+        scheduler_.shutdown();
+        tokenFile_.delete();
+    }
+
+    /**
+     * Submit a job
+     * @param tasks             Products, ASIN and optional name
+     * @param incremental       Whether only the reviews posted since the last crawl are crawled
+     * @return                  The job, null if no longer accepting jobs
+     */
+    private Job submit(List<String[]> tasks, boolean incremental) {
+        Job job = new Job(nextJobId_.incrementAndGet(), incremental, tasks.size());
+        synchronized (jobs_) {
+            if (!accepting_)
+                return null;
+
+            jobs_.put(job.id, job);
+            evictFinishedJobs();
+
+            for (String[] task : tasks)
+                pending_.add(new Item(job, task[0], task.length > 1 ? task[1] : ""));
+        }
+        return job;
+    }
+
+    // keep the status of the last finished jobs only, called with the lock held
+    private void evictFinishedJobs() {
+        int finished = 0;
+        for (Job job : jobs_.values())
+            if (job.isFinished())
+                ++finished;
+
+        for (Iterator<Job> it = jobs_.values().iterator(); finished > MAX_FINISHED_JOBS && it.hasNext(); ) {
+            if (it.next().isFinished()) {
+                it.remove();
+                --finished;
+            }
+        }
+    }
+
+    // hand the pending products over to the scheduler, waiting for free slots.
+    // A product already being crawled is held until that crawl is over
+    private void dispatch() {
+        try {
+            while (true) {
+                final Item item = pending_.take();
+                if (item == END) {
+                    // the products held are requeued ahead of the end once their crawl is over
+                    synchronized (running_) {
+                        while (isHolding())
+                            running_.wait();
+                    }
+                    if (pending_.isEmpty())
+                        return;
+                    pending_.putLast(END);
+                    continue;
+                }
+
+                synchronized (running_) {
+                    Deque<Item> held = running_.get(item.asin);
+                    if (held != null) {
+                        held.addLast(item);
+                        continue;
+                    }
+                    running_.put(item.asin, new ArrayDeque<>());
+                }
+
+                scheduler_.submit(item.asin, new BatchScheduler.ProductTask() {
+                    @Override
+                    public int crawl(String asin) throws Exception {
+                        item.job.started.incrementAndGet();
+                        return CommandLine.crawlAndStore(asin, dir_, pc_, rc_, shared_, item.job.incremental);
+                    }
+                }, new BatchScheduler.ProductListener() {
+                    @Override
+                    public void onProductDone(String asin, int numOfReviews, long timeCost, Exception error) {
+                        Job job = item.job;
+                        job.reviews.addAndGet(numOfReviews);
+                        int n = (error == null ? job.done : job.failed).incrementAndGet();
+                        if (job.isFinished())
+                            job.finished = System.currentTimeMillis();
+
+                        String status = error == null ? "Done" : "Failed (" + error.getMessage() + ")";
+                        System.out.println("Job " + job.id + ": crawled " + (job.done.get() + job.failed.get())
+                                + " of " + job.total + " product: [" + asin + "] " + item.name + "... " + status
+                                + " " + numOfReviews + " reviews (" + (timeCost / 1000) + "s)");
+
+                        release(asin);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the crawl of an ASIN is over, the products held for it go first
+    private void release(String asin) {
+        synchronized (running_) {
+            Deque<Item> held = running_.remove(asin);
+            if (held != null)
+                for (Iterator<Item> it = held.descendingIterator(); it.hasNext(); )
+                    pending_.addFirst(it.next());
+            running_.notifyAll();
+        }
+    }
+
+    // some products are held for a crawl of their ASIN, called with the lock held
+    private boolean isHolding() {
+        for (Deque<Item> held : running_.values())
+            if (!held.isEmpty())
+                return true;
+        return false;
+    }
+
+    // a browser is refused, and a POST must carry the token. Responds if not allowed
+    private boolean isAllowed(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            respond(exchange, 403, error("cross-origin requests are not allowed"));
+            return false;
+        }
+
+        if ("POST".equals(exchange.getRequestMethod())) {
+            String token = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+            if (token == null || !MessageDigest.isEqual(token_, token.getBytes(StandardCharsets.UTF_8))) {
+                respond(exchange, 403, error("missing or wrong " + TOKEN_HEADER + " header"));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // POST /jobs, GET /jobs, GET /jobs/<id>
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        if (!isAllowed(exchange))
+            return;
+
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+
+        if ("POST".equals(method) && path.equals("/jobs")) {
+            String mode = queryParam(exchange, "mode");
+            if (mode != null && !"incremental".equals(mode) && !"full".equals(mode)) {
+                respond(exchange, 400, error("mode must be incremental or full"));
+                return;
+            }
+
+            List<String[]> tasks = new ArrayList<>();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            for (String line : body.split("\n")) {
+                String[] task = line.trim().split("::");
+                if (CommandLine.validAsin(task[0]))
+                    tasks.add(task);
+            }
+            if (tasks.isEmpty()) {
+                respond(exchange, 400, error("no valid ASIN"));
+                return;
+            }
+
+            boolean incremental = mode == null ? shared_.opts.incremental : "incremental".equals(mode);
+            Job job = submit(tasks, incremental);
+            if (job == null)
+                respond(exchange, 503, error("shutting down"));
+            else
+                respond(exchange, 201, toJson(job));
+            return;
+        }
+
+        if (!"GET".equals(method)) {
+            respond(exchange, 405, error("method not allowed"));
+            return;
+        }
+
+        if (path.equals("/jobs") || path.equals("/jobs/")) {
+            StringBuilder sb = new StringBuilder("{\"jobs\":[");
+            synchronized (jobs_) {
+                boolean first = true;
+                for (Job job : jobs_.values()) {
+                    if (!first)
+                        sb.append(',');
+                    sb.append(toJson(job));
+                    first = false;
+                }
+            }
+            respond(exchange, 200, sb.append("]}").toString());
+            return;
+        }
+
+        Job job = null;
+        try {
+            int id = Integer.parseInt(path.substring("/jobs/".length()));
+            synchronized (jobs_) {
+                job = jobs_.get(id);
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            // not a job id
+        }
+        if (job == null)
+            respond(exchange, 404, error("no such job"));
+        else
+            respond(exchange, 200, toJson(job));
+    }
+
+    // GET /status
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        if (!isAllowed(exchange))
+            return;
+
+        CrawlMetrics metrics = shared_.metrics;
+
+        StringBuilder sb = new StringBuilder("{");
+        Json.field(sb, "accepting", accepting_).append(',');
+        Json.field(sb, "pendingProducts", pending_.size()).append(',');
+        Json.field(sb, "uptimeSeconds", metrics.getElapsedSeconds()).append(',');
+        Json.field(sb, "products", metrics.getProducts()).append(',');
+        Json.field(sb, "pages", metrics.getPages()).append(',');
+        Json.field(sb, "reviews", metrics.getReviews()).append(',');
+        Json.field(sb, "reviewsPerSecond", metrics.getReviewsPerSecond()).append(',');
+        Json.field(sb, "retries", metrics.getRetries()).append(',');
+        Json.field(sb, "failedPages", metrics.getFailedPages()).append(',');
+        Json.field(sb, "fetchQueue", metrics.getFetchQueueDepth()).append(',');
+        Json.field(sb, "parseQueue", metrics.getParseQueueDepth()).append(',');
+        Json.field(sb, "persistQueue", metrics.getPersistQueueDepth()).append(',');
+        Json.field(sb, "cacheHits", metrics.getCacheHits());
+        respond(exchange, 200, sb.append('}').toString());
+    }
+
+    // POST /shutdown
+    private void handleShutdown(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, error("method not allowed"));
+            return;
+        }
+        if (!isAllowed(exchange))
+            return;
+
+        synchronized (jobs_) {
+            accepting_ = false;
+        }
+        respond(exchange, 202, "{\"pendingProducts\":" + pending_.size() + "}");
+        shutdownRequested_.countDown();
+    }
+
+    private static String toJson(Job job) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.field(sb, "id", job.id).append(',');
+        Json.field(sb, "state", job.getState()).append(',');
+        Json.field(sb, "mode", job.incremental ? "incremental" : "full").append(',');
+        Json.field(sb, "products", job.total).append(',');
+        Json.field(sb, "done", job.done.get()).append(',');
+        Json.field(sb, "failed", job.failed.get()).append(',');
+        Json.field(sb, "reviews", job.reviews.get()).append(',');
+        Json.field(sb, "submitted", job.submitted).append(',');
+        Json.field(sb, "finished", job.finished == 0 ? null : job.finished);
+        return sb.append('}').toString();
+    }
+
+    private static String error(String message) {
+        return Json.field(new StringBuilder("{"), "error", message).append('}').toString();
+    }
+
+    // value of a parameter of the query string, null if missing
+    private static String queryParam(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null)
+            return null;
+
+        for (String param : query.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq > 0 && param.substring(0, eq).equals(name))
+                return param.substring(eq + 1);
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
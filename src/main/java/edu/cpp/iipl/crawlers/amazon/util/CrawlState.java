@@ -0,0 +1,91 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * State of a product left by the last crawl in its folder: the number of
+ * reviews from product.txt, and the ids of the reviews stored either as
+ * review files or in the review segment. The crawled date of product.txt
+ * is not used: the number of reviews tells whether there are new ones, and
+ * the ids where the last crawl stopped, whatever its date.
+ */
+public class CrawlState {
+
+    static final String PRODUCT_FILE = "product.txt";
+
+    private static final String NUM_OF_REVIEWS = "Number of Reviews: ";
+
+    private final Integer numOfReviews_;
+
+    private final Set<String> knownIds_;
+
+    private CrawlState(Integer numOfReviews, Set<String> knownIds) {
+        this.numOfReviews_ = numOfReviews;
+        this.knownIds_ = Collections.unmodifiableSet(knownIds);
+    }
+
+    /**
+     * Load the state of the last crawl of a product
+     * @param productDir        Folder of the product
+     * @return                  State of the last crawl, null if never crawled
+     * @throws IOException
+     */
+    public static CrawlState load(File productDir) throws IOException {
+        File productFile = new File(productDir, PRODUCT_FILE);
+        if (!productFile.exists())
+            return null;
+
+        Integer numOfReviews = null;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(productFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(NUM_OF_REVIEWS)) {
+                    try {
+                        numOfReviews = Integer.parseInt(line.substring(NUM_OF_REVIEWS.length()).trim());
+                    } catch (NumberFormatException e) {
+                        numOfReviews = null;
+                    }
+                }
+            }
+        }
+
+        // ids from review.<id>.txt files
+        Set<String> knownIds = new HashSet<>();
+        String[] names = productDir.list();
+        if (names != null)
+            for (String name : names)
+                if (name.startsWith("review.") && name.endsWith(".txt"))
+                    knownIds.add(name.substring("review.".length(), name.length() - ".txt".length()));
+
+        // ids from the review segment
+        try (ReviewSegmentReader reader = new ReviewSegmentReader(productDir)) {
+            if (reader.exists())
+                knownIds.addAll(reader.getIndex().keySet());
+        }
+
+        return new CrawlState(numOfReviews, knownIds);
+    }
+
+    public Integer getNumOfReviews() {
+        return numOfReviews_;
+    }
+
+    public Set<String> getKnownIds() {
+        return knownIds_;
+    }
+
+    /**
+     * Whether the product still has the same number of reviews
+     * @param numOfReviews      Number of reviews on the product page now
+     * @return                  True if the reviews need not be crawled again
+     */
+    public boolean isUnchanged(Integer numOfReviews) {
+        return numOfReviews != null && numOfReviews > 0
+                && numOfReviews.equals(numOfReviews_) && !knownIds_.isEmpty();
+    }
+}
@@ -0,0 +1,47 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+/**
+ * Minimal JSON writing, shared by the review segments and the daemon.
+ */
+final class Json {
+
+    private Json() {}
+
+    /**
+     * Append "key":value, a string escaped, a number or boolean as is,
+     * null and non-finite floats as null
+     * @param sb                Builder of the JSON object
+     * @param key               Name of the field
+     * @param value             Value of the field
+     * @return                  The builder
+     */
+    static StringBuilder field(StringBuilder sb, String key, Object value) {
+        sb.append('"').append(key).append("\":");
+
+        if (value == null)
+            return sb.append("null");
+        if (value instanceof Float && !Float.isFinite((Float) value))
+            return sb.append("null");
+        if (value instanceof Number || value instanceof Boolean)
+            return sb.append(value);
+
+        String s = value.toString();
+        sb.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+}
@@ -1,29 +1,280 @@
 package edu.cpp.iipl.crawlers.amazon.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * A very simple logger
  *
+ * Messages are not printed by the calling thread: they are put in a
+ * bounded lock-free ring buffer shared by all the loggers, and a single
+ * background thread prints them, info to stdout and warnings to stderr.
+ * When the buffer is full, messages are dropped and counted rather than
+ * waited for. The thread sleeps while nothing is logged and is woken up by
+ * the next message. A message below the level of the logger costs a comparison,
+ * and the key/value overloads avoid building the message when disabled:
+ *
+ *   logger.info("Done parsing review page", "asin", asin, "page", nPage);
+ *
+ * prints "Done parsing review page asin=B0083FTVB8 page=3". Values must
+ * not change once logged since they are formatted later.
+ *
  * Created by xing on 12/24/15.
  */
 public class Logger {
 
-    private boolean isVerbose = false;
+    public enum Level { INFO, WARN, OFF }
+
+    // messages buffered, a power of two
+    private static final int CAPACITY = 8192;
+
+    private static final Ring ring = new Ring(CAPACITY);
+
+    // characters printed at once at most
+    private static final int BATCH_SIZE = 1 << 16;
+
+    // messages dropped since the buffer was full
+    private static final AtomicLong dropped = new AtomicLong();
+
+    // longest sleep of the drain thread, in case a wake-up is missed
+    private static final long IDLE_PARK_NANOS = 1_000_000_000L;
+
+    private static final Thread drainThread = new Thread(Logger::drain, "logger");
+
+    // the drain thread sleeps, and must be woken up by the next message
+    private static volatile boolean idle = false;
+
+    static {
+        drainThread.setDaemon(true);
+        drainThread.start();
+
+        // print what is left when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000), "logger-flush"));
+    }
+
+    private volatile Level level = Level.OFF;
 
     public boolean isVerbose() {
-        return isVerbose;
+        return level != Level.OFF;
     }
 
+    // verbose prints info and warnings, nothing otherwise
     public void setVerbose(boolean verbose) {
-        isVerbose = verbose;
+        level = verbose ? Level.INFO : Level.OFF;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public boolean isInfoEnabled() {
+        return level.compareTo(Level.INFO) <= 0;
+    }
+
+    public boolean isWarnEnabled() {
+        return level.compareTo(Level.WARN) <= 0;
     }
 
     public void info(Object x) {
-        if (isVerbose)
-            System.out.println(x);
+        if (isInfoEnabled())
+            log(Level.INFO, x, null, null, null, null, null, null);
+    }
+
+    public void info(String msg, String k1, Object v1) {
+        if (isInfoEnabled())
+            log(Level.INFO, msg, k1, v1, null, null, null, null);
+    }
+
+    public void info(String msg, String k1, Object v1, String k2, Object v2) {
+        if (isInfoEnabled())
+            log(Level.INFO, msg, k1, v1, k2, v2, null, null);
+    }
+
+    public void info(String msg, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        if (isInfoEnabled())
+            log(Level.INFO, msg, k1, v1, k2, v2, k3, v3);
     }
 
     public void warn(Object x) {
-        if (isVerbose)
-            System.err.println(x);
+        if (isWarnEnabled())
+            log(Level.WARN, x, null, null, null, null, null, null);
+    }
+
+    public void warn(String msg, String k1, Object v1) {
+        if (isWarnEnabled())
+            log(Level.WARN, msg, k1, v1, null, null, null, null);
+    }
+
+    public void warn(String msg, String k1, Object v1, String k2, Object v2) {
+        if (isWarnEnabled())
+            log(Level.WARN, msg, k1, v1, k2, v2, null, null);
+    }
+
+    public void warn(String msg, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        if (isWarnEnabled())
+            log(Level.WARN, msg, k1, v1, k2, v2, k3, v3);
+    }
+
+    /**
+     * Number of messages dropped since the buffer was full
+     * @return                  Number of messages
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Wait until the messages logged so far are printed
+     * @param timeoutMillis     Maximum time to wait
+     */
+    public static void flush(long timeoutMillis) {
+        long target = ring.tail.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        LockSupport.unpark(drainThread);
+        while (ring.printed < target && System.currentTimeMillis() < deadline)
+            LockSupport.parkNanos(100_000);
+    }
+
+    private static void log(Level level, Object msg, String k1, Object v1, String k2, Object v2,
+                            String k3, Object v3) {
+        if (!ring.offer(level, msg, k1, v1, k2, v2, k3, v3))
+            dropped.incrementAndGet();
+        else if (idle)
+            LockSupport.unpark(drainThread);
+    }
+
+    // print the messages, a batch of lines of the same console at once
+    private static void drain() {
+        StringBuilder batch = new StringBuilder(BATCH_SIZE);
+        Level batchLevel = Level.INFO;
+        long reported = 0;
+
+        while (true) {
+            Record record = ring.poll();
+
+            // print the batch when the console changes, the batch is large or nothing is left
+            if (batch.length() > 0
+                    && (record == null || record.level != batchLevel || batch.length() >= BATCH_SIZE)) {
+                (batchLevel == Level.WARN ? System.err : System.out).print(batch);
+                batch.setLength(0);
+            }
+
+            if (record == null) {
+                long n = dropped.get();
+                if (n > reported) {
+                    System.err.println("Logger: " + (n - reported) + " messages dropped");
+                    reported = n;
+                }
+
+                ring.printed = ring.head;
+
+                // sleep unless a message came in meanwhile, its producer may have seen idle unset
+                idle = true;
+                if (ring.poll() == null)
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                idle = false;
+                continue;
+            }
+
+            batchLevel = record.level;
+            batch.append(record.msg);
+            append(batch, record.k1, record.v1);
+            append(batch, record.k2, record.v2);
+            append(batch, record.k3, record.v3);
+            batch.append(System.lineSeparator());
+            ring.release(record);
+        }
+    }
+
+    private static void append(StringBuilder sb, String key, Object value) {
+        if (key != null)
+            sb.append(' ').append(key).append('=').append(value);
+    }
+
+    // a message waiting in the ring buffer
+    private static class Record {
+        Level level;
+        Object msg;
+        String k1, k2, k3;
+        Object v1, v2, v3;
+    }
+
+    /**
+     * Bounded multi-producer single-consumer ring of preallocated records.
+     * A slot is free for the producer claiming position p when its sequence
+     * is p, and ready for the consumer when its sequence is p + 1.
+     */
+    private static class Ring {
+        private final int mask;
+        private final Record[] records;
+        private final AtomicLongArray sequences;
+
+        // next position claimed by a producer
+        final AtomicLong tail = new AtomicLong();
+
+        // next position read by the consumer, only accessed by it
+        long head = 0;
+
+        // position up to which the messages are printed
+        volatile long printed = 0;
+
+        Ring(int capacity) {
+            this.mask = capacity - 1;
+            this.records = new Record[capacity];
+            this.sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; ++i) {
+                records[i] = new Record();
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Level level, Object msg, String k1, Object v1, String k2, Object v2,
+                      String k3, Object v3) {
+            while (true) {
+                long pos = tail.get();
+                int index = (int) pos & mask;
+                long seq = sequences.get(index);
+
+                if (seq < pos)
+                    return false;       // full
+                if (seq > pos || !tail.compareAndSet(pos, pos + 1))
+                    continue;           // claimed by another producer
+
+                Record record = records[index];
+                record.level = level;
+                record.msg = msg;
+                record.k1 = k1;
+                record.v1 = v1;
+                record.k2 = k2;
+                record.v2 = v2;
+                record.k3 = k3;
+                record.v3 = v3;
+                sequences.set(index, pos + 1);
+                return true;
+            }
+        }
+
+        // next record, null if none ready
+        Record poll() {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1)
+                return null;
+            return records[index];
+        }
+
+        // hand the slot of the record polled back to the producers
+        void release(Record record) {
+            record.msg = null;
+            record.v1 = record.v2 = record.v3 = null;
+
+            int index = (int) head & mask;
+            sequences.set(index, head + records.length);
+            ++head;
+        }
     }
 }
@@ -0,0 +1,118 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import edu.cpp.iipl.crawlers.amazon.core.CrawlMetrics;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic report of the metrics of a run, as one line on the console
+ * and/or one row of a CSV file per period. Rates are over the last period,
+ * latencies over the whole run, queue depths at the time of the report.
+ */
+public class MetricsReporter implements Closeable {
+
+    // columns of the CSV file
+    private static final String CSV_HEADER = "elapsed_s,products,pages,reviews,pages_per_s,reviews_per_s,"
+            + "bytes,retries,blocked,failed,fetch_p50_ms,fetch_p99_ms,parse_p50_ms,parse_p99_ms,"
+            + "write_p50_ms,write_p99_ms,fetch_queue,parse_queue,persist_queue";
+
+    private final CrawlMetrics metrics_;
+
+    // console, null for none
+    private final PrintStream console_;
+
+    // CSV file, null for none
+    private final PrintWriter csv_;
+
+    private final ScheduledExecutorService timer_;
+
+    // counters at the last report
+    private long lastMillis_;
+    private long lastPages_ = 0;
+    private long lastReviews_ = 0;
+
+    /**
+     * Start reporting
+     * @param metrics           Metrics of the run
+     * @param periodSeconds     Time between two reports
+     * @param console           Console of the one line reports, null for none
+     * @param csvFile           CSV file of the reports, null for none
+     * @throws IOException
+     */
+    public MetricsReporter(CrawlMetrics metrics, int periodSeconds, PrintStream console, File csvFile)
+            throws IOException {
+        this.metrics_ = metrics;
+        this.console_ = console;
+        this.csv_ = csvFile != null ? new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(csvFile), StandardCharsets.UTF_8))) : null;
+        if (csv_ != null) {
+            csv_.println(CSV_HEADER);
+            csv_.flush();
+        }
+        this.lastMillis_ = metrics.getStats().getElapsedMillis();
+
+        this.timer_ = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        timer_.scheduleAtFixedRate(this::report, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Report now
+     */
+    public synchronized void report() {
+        long millis = metrics_.getStats().getElapsedMillis();
+        long pages = metrics_.getPages();
+        long reviews = metrics_.getReviews();
+
+        double seconds = Math.max(millis - lastMillis_, 1) / 1000.0;
+        double pagesPerSecond = (pages - lastPages_) / seconds;
+        double reviewsPerSecond = (reviews - lastReviews_) / seconds;
+
+        lastMillis_ = millis;
+        lastPages_ = pages;
+        lastReviews_ = reviews;
+
+        if (console_ != null)
+            console_.println(String.format("[%ds] %d products, %d pages, %d reviews (%.1f pages/s, %.1f reviews/s), "
+                            + "%.1f MB, %d retries, %d failed | fetch p50 %.0fms p99 %.0fms | parse p50 %.1fms p99 %.1fms"
+                            + " | write p50 %.1fms p99 %.1fms | queued fetch %d parse %d persist %d",
+                    millis / 1000, metrics_.getProducts(), pages, reviews, pagesPerSecond, reviewsPerSecond,
+                    metrics_.getBytesDownloaded() / (1024.0 * 1024), metrics_.getRetries(), metrics_.getFailedPages(),
+                    metrics_.getFetchP50Millis(), metrics_.getFetchP99Millis(),
+                    metrics_.getParseP50Millis(), metrics_.getParseP99Millis(),
+                    metrics_.getWriteP50Millis(), metrics_.getWriteP99Millis(),
+                    metrics_.getFetchQueueDepth(), metrics_.getParseQueueDepth(), metrics_.getPersistQueueDepth()));
+
+        if (csv_ != null) {
+            csv_.println(String.format(Locale.ROOT,
+                    "%.1f,%d,%d,%d,%.2f,%.2f,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d",
+                    millis / 1000.0, metrics_.getProducts(), pages, reviews, pagesPerSecond, reviewsPerSecond,
+                    metrics_.getBytesDownloaded(), metrics_.getRetries(), metrics_.getBlockedPages(),
+                    metrics_.getFailedPages(),
+                    metrics_.getFetchP50Millis(), metrics_.getFetchP99Millis(),
+                    metrics_.getParseP50Millis(), metrics_.getParseP99Millis(),
+                    metrics_.getWriteP50Millis(), metrics_.getWriteP99Millis(),
+                    metrics_.getFetchQueueDepth(), metrics_.getParseQueueDepth(), metrics_.getPersistQueueDepth()));
+            csv_.flush();
+        }
+    }
+
+    /**
+     * Stop reporting, after a last report
+     */
+    @Override
+    public void close() {
+        timer_.shutdownNow();
+        report();
+        if (csv_ != null)
+            csv_.close();
+    }
+}
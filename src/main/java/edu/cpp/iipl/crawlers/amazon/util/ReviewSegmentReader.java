@@ -0,0 +1,226 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import edu.cpp.iipl.crawlers.amazon.model.Review;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads back the reviews of a product written by ReviewSegmentWriter,
+ * either all of them in order, or one by its id through the index.
+ */
+public class ReviewSegmentReader implements Iterable<Review>, Closeable {
+
+    private final File segment_;
+
+    // review id -> byte offset, loaded on first lookup
+    private Map<String, Long> index_ = null;
+
+    private final File indexFile_;
+
+    // random access for lookups, opened on first lookup
+    private RandomAccessFile raf_ = null;
+
+    public ReviewSegmentReader(File productDir) {
+        this.segment_ = new File(productDir, ReviewSegmentWriter.SEGMENT_FILE);
+        this.indexFile_ = new File(productDir, ReviewSegmentWriter.INDEX_FILE);
+    }
+
+    public boolean exists() {
+        return segment_.exists();
+    }
+
+    /**
+     * Iterate all the reviews in the order they were written
+     * @return                  Iterator of reviews, which closes the file once exhausted
+     */
+    @Override
+    public Iterator<Review> iterator() {
+        final BufferedReader br;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(segment_), StandardCharsets.UTF_8));
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new Iterator<Review>() {
+            private String next = readLine();
+
+            private String readLine() {
+                try {
+                    String line;
+                    while ((line = br.readLine()) != null && line.isEmpty());
+                    if (line == null)
+                        br.close();
+                    return line;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Review next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+
+                Review review = fromJson(next);
+                next = readLine();
+                return review;
+            }
+        };
+    }
+
+    /**
+     * Look up a review by its id
+     * @param name              Review id
+     * @return                  Latest version of the review, null if not found
+     * @throws IOException
+     */
+    public synchronized Review get(String name) throws IOException {
+        if (index_ == null)
+            index_ = loadIndex();
+
+        Long offset = index_.get(name);
+        if (offset == null)
+            return null;
+
+        if (raf_ == null)
+            raf_ = new RandomAccessFile(segment_, "r");
+
+        // read the line at the offset
+        raf_.seek(offset);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+        int b;
+        while ((b = raf_.read()) != -1 && b != '\n')
+            line.write(b);
+
+        return fromJson(new String(line.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Ids of all the reviews in the segment
+     * @return                  Review id -> byte offset
+     * @throws IOException
+     */
+    public synchronized Map<String, Long> getIndex() throws IOException {
+        if (index_ == null)
+            index_ = loadIndex();
+        return index_;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf_ != null)
+            raf_.close();
+    }
+
+    // later entries win
+    private Map<String, Long> loadIndex() throws IOException {
+        Map<String, Long> index = new HashMap<>();
+        if (!indexFile_.exists())
+            return index;
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile_), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int space = line.lastIndexOf(' ');
+                if (space > 0)
+                    index.put(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+            }
+        }
+
+        return index;
+    }
+
+    // parse one line written by ReviewSegmentWriter.toJson
+    static Review fromJson(String line) {
+        Map<String, Object> fields = new HashMap<>();
+
+        int i = line.indexOf('{') + 1;
+        while (i < line.length()) {
+            // key
+            i = line.indexOf('"', i);
+            if (i < 0)
+                break;
+            StringBuilder key = new StringBuilder();
+            i = readString(line, i, key);
+            i = line.indexOf(':', i) + 1;
+
+            // value
+            char c = line.charAt(i);
+            if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                i = readString(line, i, value);
+                fields.put(key.toString(), value.toString());
+            } else {
+                int end = i;
+                while (end < line.length() && line.charAt(end) != ',' && line.charAt(end) != '}')
+                    ++end;
+                String literal = line.substring(i, end).trim();
+                fields.put(key.toString(), literal.equals("null") ? null : literal);
+                i = end;
+            }
+
+            // next field
+            while (i < line.length() && line.charAt(i) != ',' && line.charAt(i) != '}')
+                ++i;
+            if (i >= line.length() || line.charAt(i) == '}')
+                break;
+            ++i;
+        }
+
+        Review review = new Review();
+        review.setName((String) fields.get("name"));
+        review.setTitle((String) fields.get("title"));
+        if (fields.get("date") != null)
+            review.setDate(new Date(Long.parseLong((String) fields.get("date"))));
+        if (fields.get("rate") != null)
+            review.setRate(Integer.parseInt((String) fields.get("rate")));
+        if (fields.get("helpRatio") != null)
+            review.setHelpRatio(Float.parseFloat((String) fields.get("helpRatio")));
+        review.setModelNum((String) fields.get("modelNum"));
+        review.setPermalink((String) fields.get("permalink"));
+        review.setText((String) fields.get("text"));
+
+        return review;
+    }
+
+    // read a JSON string starting at the opening quote, returns index after the closing quote
+    private static int readString(String s, int i, StringBuilder out) {
+        for (++i; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"')
+                return i + 1;
+
+            if (c == '\\' && i + 1 < s.length()) {
+                char e = s.charAt(++i);
+                switch (e) {
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        out.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                        i += 4;
+                        break;
+                    default: out.append(e);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,218 @@
+package edu.cpp.iipl.crawlers.amazon.util;
+
+import edu.cpp.iipl.crawlers.amazon.core.ReviewSink;
+import edu.cpp.iipl.crawlers.amazon.model.Review;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Appends the reviews of a product to one segment file, one JSON object
+ * per line, instead of one file per review. The byte offset of each
+ * review is appended to a small index file next to it.
+ *
+ *  reviews.jsonl           {"name":"R1...","rate":5,...}\n ...
+ *  reviews.idx             R1... 0\n R2... 731\n ...
+ *
+ * Both files are only ever appended to, a review crawled twice appears
+ * twice and the later one wins. A segment left by a killed crawler is
+ * repaired on reopening: torn last lines are cut off, index entries past
+ * the segment dropped and the reviews missing from the index indexed.
+ * Thread-safe.
+ */
+public class ReviewSegmentWriter implements ReviewSink, Flushable, Closeable {
+
+    // file names inside the product folder
+    public static final String SEGMENT_FILE = "reviews.jsonl";
+    public static final String INDEX_FILE = "reviews.idx";
+
+    // default number of reviews between two fsyncs
+    public static final int DEFAULT_SYNC_EVERY = 1000;
+
+    private final FileOutputStream segmentFile_;
+    private final OutputStream segment_;
+    private final FileOutputStream indexFile_;
+    private final Writer index_;
+
+    // reviews between two fsyncs, 0 to leave it to the OS
+    private final int syncEvery_;
+
+    // byte offset of next review
+    private long offset_;
+
+    // reviews written since last fsync
+    private int unsynced_ = 0;
+
+    /**
+     * Open (or create) the segment of a product
+     * @param productDir        Folder of the product
+     * @param syncEvery         Number of reviews between two fsyncs, 0 to never force
+     * @throws IOException
+     */
+    public ReviewSegmentWriter(File productDir, int syncEvery) throws IOException {
+        File segment = new File(productDir, SEGMENT_FILE);
+        File index = new File(productDir, INDEX_FILE);
+
+        recover(segment, index);
+
+        this.segmentFile_ = new FileOutputStream(segment, true);
+        this.segment_ = new BufferedOutputStream(segmentFile_, 64 * 1024);
+        this.indexFile_ = new FileOutputStream(index, true);
+        this.index_ = new BufferedWriter(new OutputStreamWriter(indexFile_, StandardCharsets.UTF_8));
+        this.syncEvery_ = syncEvery;
+        this.offset_ = segment.length();
+    }
+
+    @Override
+    public synchronized void accept(String asin, int nPage, Collection<Review> reviews) throws IOException {
+        for (Review review : reviews)
+            write(review);
+
+        if (syncEvery_ > 0 && unsynced_ >= syncEvery_)
+            sync();
+    }
+
+    /**
+     * Append one review
+     * @param review            Review to be written
+     * @throws IOException
+     */
+    public synchronized void write(Review review) throws IOException {
+        byte[] line = (toJson(review) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        segment_.write(line);
+        index_.write(review.getName() + " " + offset_ + "\n");
+
+        offset_ += line.length;
+        ++unsynced_;
+    }
+
+    /**
+     * Hand the written reviews over to the OS, so that they survive the
+     * crawler being killed, without forcing them to disk
+     * @throws IOException
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        segment_.flush();
+        index_.flush();
+    }
+
+    /**
+     * Flush and force the written reviews to disk
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        flush();
+        segmentFile_.getChannel().force(false);
+        indexFile_.getChannel().force(false);
+        unsynced_ = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (syncEvery_ > 0 && unsynced_ > 0)
+                sync();
+        } finally {
+            segment_.close();
+            index_.close();
+        }
+    }
+
+    // bring both files back to complete records of each other after a crash
+    private static void recover(File segment, File index) throws IOException {
+        if (!segment.exists())
+            return;
+        long length = CheckpointJournal.truncateTornLine(segment);
+
+        // entries of the reviews actually in the segment
+        List<String> entries = new ArrayList<>();
+        long lastIndexed = -1;
+        boolean changed = false;
+        if (index.exists()) {
+            CheckpointJournal.truncateTornLine(index);
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(index), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    int space = line.lastIndexOf(' ');
+                    long offset;
+                    try {
+                        offset = space > 0 ? Long.parseLong(line.substring(space + 1)) : -1;
+                    } catch (NumberFormatException e) {
+                        offset = -1;
+                    }
+
+                    if (offset >= 0 && offset < length) {
+                        entries.add(line);
+                        lastIndexed = Math.max(lastIndexed, offset);
+                    } else {
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // index the reviews written after the last indexed one
+        try (InputStream in = new BufferedInputStream(new FileInputStream(segment))) {
+            long offset = Math.max(lastIndexed, 0);
+            for (long skipped = 0; skipped < offset; )
+                skipped += in.skip(offset - skipped);
+
+            ByteArrayOutputStream line = new ByteArrayOutputStream(1024);
+            boolean indexed = lastIndexed >= 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+
+                if (!indexed && line.size() > 0) {
+                    String name = ReviewSegmentReader.fromJson(
+                            new String(line.toByteArray(), StandardCharsets.UTF_8)).getName();
+                    if (name != null) {
+                        entries.add(name + " " + offset);
+                        changed = true;
+                    }
+                }
+                offset += line.size() + 1;
+                line.reset();
+                indexed = false;
+            }
+        }
+
+        if (!changed)
+            return;
+
+        File tmp = new File(index.getPath() + ".tmp");
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (String entry : entries)
+                w.write(entry + "\n");
+        }
+        Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // one line of JSON, date as epoch milliseconds
+    static String toJson(Review review) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append('{');
+        Json.field(sb, "name", review.getName()).append(',');
+        Json.field(sb, "title", review.getTitle()).append(',');
+        Json.field(sb, "date", review.getDate() == null ? null : review.getDate().getTime()).append(',');
+        Json.field(sb, "rate", review.getRate()).append(',');
+        Json.field(sb, "helpRatio", review.getHelpRatio()).append(',');
+        Json.field(sb, "modelNum", review.getModelNum()).append(',');
+        Json.field(sb, "permalink", review.getPermalink()).append(',');
+        Json.field(sb, "text", review.getText());
+        sb.append('}');
+        return sb.toString();
+    }
+}